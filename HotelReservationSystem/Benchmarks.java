@@ -0,0 +1,405 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.List;
+import java.util.function.Supplier;
+import javax.swing.RowFilter;
+import javax.swing.table.TableRowSorter;
+
+// BENCHMARKS
+// Measures the persistence, table and search paths over synthetic data. Run it from an empty
+// scratch directory, since DataManager reads and writes its files in the working directory:
+//
+//   javac -d out HotelManagement.java Benchmarks.java
+//   mkdir bench && cd bench && java -cp ../out Benchmarks [--sizes 10000,100000,1000000]
+//                                                         [--baseline old.csv] [--out results.csv]
+//                                                         [--backends snapshot,lsm]
+//
+// The harness uses the package-private classes declared in HotelManagement.java, which -Xlint:all
+// reports as auxiliary class access on every use; add -Xlint:-auxiliaryclass when linting.
+//
+// Every benchmark is warmed up first, then timed per iteration. Allocation is summed over all
+// threads (saves happen on the writer thread), the same figure a JMH gc profiler reports.
+// claim/* books the same stays from one thread and from many, to show how the striped locks scale.
+// With --baseline the run fails when any benchmark got more than 25% slower than before.
+// The repo/* benchmarks run against each Repository backend listed, by default the configured one.
+// The configured backend also holds DataManager's lists, so -Dhotel.storage=lsm runs the
+// persistence benchmarks on it as well.
+public class Benchmarks {
+    private static final int WARMUP = 3, ITERATIONS = 10, PAINTS = 1000;
+    private static final int CLAIMS = 20_000, CLAIM_THREADS = 64;
+    private static final double REGRESSION = 1.25;
+    private static final String[] DATA_FILES = {"rooms.dat", "cust.dat", "res.dat", "rooms.lsm", "cust.lsm", "res.lsm"};
+    private static final String SERIALIZED_FILE = "res-serialized.dat";
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Map<String, Result> results = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {10_000, 100_000};
+        String baseline = null, out = "bench-results.csv";
+        String[] backends = {Repositories.backend()};
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) throw new IllegalArgumentException("Missing value for " + args[i]);
+            switch (args[i]) {
+                case "--sizes": sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "--baseline": baseline = args[i + 1]; break;
+                case "--out": out = args[i + 1]; break;
+                case "--backends": backends = args[i + 1].split(","); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        for (String file : DATA_FILES) {
+            if (new File(file).exists()) {
+                System.err.println("Refusing to run: " + file + " exists here. Start from an empty directory.");
+                System.exit(2);
+            }
+        }
+
+        Benchmarks bench = new Benchmarks();
+        for (int size : sizes) {
+            bench.runAll(size);
+            for (String backend : backends) bench.runRepository(backend, size);
+        }
+        bench.runPainting();
+        DataManager.flush();
+        bench.write(out);
+        cleanUp();
+        if (baseline != null && !bench.compare(baseline)) System.exit(1);
+    }
+
+    private void runAll(int size) {
+        ArrayList<Room> rooms = rooms(size);
+        ArrayList<Customer> customers = customers(size);
+        ArrayList<Reservation> reservations = reservations(size, rooms, customers);
+
+        // Snapshot writes and reads, codec vs default serialization
+        run("save/rooms", size, () -> DataManager.save(rooms, "rooms.dat"));
+        run("save/cust", size, () -> DataManager.save(customers, "cust.dat"));
+        run("save/res", size, () -> DataManager.save(reservations, "res.dat"));
+        run("save/res-serialized", size, () -> DataManager.save(reservations, SERIALIZED_FILE));
+        run("load/rooms", size, () -> DataManager.load("rooms.dat"));
+        run("load/cust", size, () -> DataManager.load("cust.dat"));
+        run("load/res", size, () -> DataManager.load("res.dat"));
+        run("load/res-serialized", size, () -> DataManager.load(SERIALIZED_FILE));
+
+        // Single-record edits go to the journal instead of rewriting the snapshot
+        ArrayList<Reservation> journaled = new ArrayList<>(reservations);
+        int[] next = {size};
+        run("insert/res", size, () -> {
+            for (int i = 0; i < 100; i++, next[0]++) {
+                Reservation r = reservations.get(next[0] % size);
+                Reservation copy = new Reservation("RB" + next[0], r.getRoomId(), r.getCustId(),
+                        r.getCheckIn(), r.getCheckOut(), r.getTotal());
+                DataManager.insert(journaled, copy, "res.dat").join();
+            }
+        });
+        DataManager.save(reservations, "res.dat");
+
+        runClaims(size, reservations);
+
+        // What a form does on open: wrap the rows and let the table read every cell
+        run("model/cust", size, () -> readAll(customerModel(customers)));
+        run("model/res", size, () -> readAll(reservationModel(reservations)));
+        run("model/res-store", size, () -> readAll(reservationModel(DataManager.getResStore())));
+
+        // Typing "smith12" one key at a time, old regex filter vs the search index
+        String[] keystrokes = {"s", "sm", "smi", "smit", "smith", "smith1", "smith12"};
+        TableRowSorter<EntityTableModel<Customer>> sorter = new TableRowSorter<>(customerModel(customers));
+        run("search/regex", size, () -> {
+            for (String q : keystrokes) sorter.setRowFilter(RowFilter.regexFilter("(?i)" + q));
+            return sorter.getViewRowCount();
+        });
+        run("search/index-build", size, () -> new SearchIndex<>(customers,
+                List.of(Customer::getName, Customer::getPhone, Customer::getEmail)).search("smith"));
+        SearchIndex<Customer> index = new SearchIndex<>(customers,
+                List.of(Customer::getName, Customer::getPhone, Customer::getEmail));
+        run("search/index", size, () -> {
+            for (String q : keystrokes) {
+                BitSet matches = index.search(q);
+                sorter.setRowFilter(new RowFilter<EntityTableModel<Customer>, Integer>() {
+                    @Override
+                    public boolean include(Entry<? extends EntityTableModel<Customer>, ? extends Integer> entry) {
+                        return matches.get(entry.getIdentifier());
+                    }
+                });
+            }
+            return sorter.getViewRowCount();
+        });
+    }
+
+    // Check-and-book on the availability index, the same claims from one thread and from
+    // CLAIM_THREADS threads. Each claim is released again, so every iteration sees the same
+    // calendars. Half of the threads' checks also skip a stay in another room, as an edit does
+    private void runClaims(int size, ArrayList<Reservation> reservations) {
+        AvailabilityIndex index = new AvailabilityIndex(reservations);
+        Random random = new Random(11);
+        long day = 24L * 60 * 60 * 1000, start = new GregorianCalendar(2025, Calendar.JANUARY, 1).getTimeInMillis();
+        Reservation[] bookings = new Reservation[CLAIMS];
+        for (int i = 0; i < CLAIMS; i++) {
+            Reservation r = reservations.get(random.nextInt(size));
+            long in = start + random.nextInt(730) * day;
+            bookings[i] = new Reservation("CL" + i, r.getRoomId(), r.getCustId(), new Date(in), new Date(in + 2 * day), 1);
+        }
+        for (int threads : new int[]{1, CLAIM_THREADS}) {
+            run("claim/" + threads + "-threads", size, () -> {
+                Thread[] workers = new Thread[threads];
+                int[] booked = new int[threads];
+                for (int t = 0; t < threads; t++) {
+                    int first = t;
+                    workers[t] = new Thread(() -> {
+                        for (int i = first; i < CLAIMS; i += threads) {
+                            Reservation b = bookings[i];
+                            if ((i & 1) == 0) {
+                                Reservation other = bookings[(i + 1) % CLAIMS];
+                                index.isAvailable(b.getRoomId(), EntityCodec.toEpochDay(b.getCheckIn()),
+                                        EntityCodec.toEpochDay(b.getCheckOut()), other);
+                            }
+                            if (index.claim(b, null)) {
+                                booked[first]++;
+                                index.release(b, null);
+                            }
+                        }
+                    });
+                    workers[t].start();
+                }
+                int total = 0;
+                for (int t = 0; t < threads; t++) {
+                    try {
+                        workers[t].join();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    total += booked[t];
+                }
+                return total;
+            });
+        }
+    }
+
+    // Repainting a dashboard button, alternating hover on and off. Painting itself allocates nothing;
+    // the few hundred B/op left are the allocation counters being read
+    private void runPainting() {
+        ModernButton button = new ModernButton("Reservations");
+        button.setSize(280, 250);
+        BufferedImage canvas = new BufferedImage(280, 250, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = canvas.createGraphics();
+        Runnable paints = () -> {
+            for (int i = 0; i < PAINTS; i++) {
+                button.getModel().setRollover((i & 1) == 0);
+                button.paintComponent(g);
+            }
+        };
+        // Until the JIT has compiled the paint path, the interpreter allocates where compiled code won't
+        for (int i = 0; i < 20; i++) paints.run();
+        run("paint/button", PAINTS, paints);
+        g.dispose();
+    }
+
+    // Storage backends behind the Repository SPI: durable single-record writes, point lookups, a
+    // month of check-ins through the date index, a full scan, and reopening the store
+    private void runRepository(String backend, int size) {
+        String name = "repo-bench-" + backend + "-" + size;
+        ArrayList<Reservation> reservations = reservations(size, rooms(size), customers(size));
+        Repository<String, Reservation> repo = Repositories.reservations(backend, name);
+        repo.putAll(reservations);
+
+        Random random = new Random(7);
+        long day = 24L * 60 * 60 * 1000;
+        run("repo/" + backend + "/put", size, () -> {
+            for (int i = 0; i < 100; i++) {
+                Reservation r = reservations.get(random.nextInt(size));
+                Date in = new Date(r.getCheckIn().getTime() + random.nextInt(30) * day);
+                repo.put(new Reservation(r.getResId(), r.getRoomId(), r.getCustId(), in,
+                        new Date(in.getTime() + day), r.getTotal()));
+            }
+        });
+        run("repo/" + backend + "/get", size, () -> {
+            int found = 0;
+            for (int i = 0; i < 10_000; i++) {
+                if (repo.get("RES" + random.nextInt(size)) != null) found++;
+            }
+            return found;
+        });
+        int first = EntityCodec.toEpochDay(new GregorianCalendar(2025, Calendar.JUNE, 1).getTime());
+        run("repo/" + backend + "/scan-month", size,
+                () -> repo.indexRange(Repositories.day(first), Repositories.day(first + 30)).count());
+        run("repo/" + backend + "/scan-all", size, () -> repo.all().count());
+        repo.close();
+        run("repo/" + backend + "/open", size, () -> Repositories.reservations(backend, name).close());
+    }
+
+    private void run(String name, int size, Runnable body) {
+        run(name, size, () -> { body.run(); return null; });
+    }
+
+    private void run(String name, int size, Supplier<Object> body) {
+        for (int i = 0; i < WARMUP; i++) body.get();
+
+        long[] nanos = new long[ITERATIONS];
+        long allocated = allocatedBytes(), gcs = gcCount();
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            body.get();
+            nanos[i] = System.nanoTime() - start;
+        }
+        allocated = allocatedBytes() - allocated;
+        gcs = gcCount() - gcs;
+
+        Result r = new Result(name + "@" + size, nanos, allocated / ITERATIONS, gcs);
+        results.put(r.name, r);
+        System.out.println(r);
+    }
+
+    // TEST DATA
+    private static ArrayList<Room> rooms(int n) {
+        ArrayList<Room> list = new ArrayList<>(n);
+        RoomType[] types = RoomType.values();
+        BedType[] beds = BedType.values();
+        for (int i = 0; i < n; i++) {
+            list.add(new Room("R" + i, types[i % types.length], beds[i % beds.length], 2000 + i % 50 * 100));
+        }
+        return list;
+    }
+
+    private static ArrayList<Customer> customers(int n) {
+        ArrayList<Customer> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            list.add(new Customer("C" + i, (i % 7 == 0 ? "Ali Smith" : "Sara Khan") + i,
+                    "0300" + (1_000_000 + i), "guest" + i + "@mail.com"));
+        }
+        return list;
+    }
+
+    private static ArrayList<Reservation> reservations(int n, List<Room> rooms, List<Customer> customers) {
+        ArrayList<Reservation> list = new ArrayList<>(n);
+        Random random = new Random(42);
+        long day = 24L * 60 * 60 * 1000, start = new GregorianCalendar(2025, Calendar.JANUARY, 1).getTimeInMillis();
+        for (int i = 0; i < n; i++) {
+            Room room = rooms.get(random.nextInt(rooms.size()));
+            long in = start + random.nextInt(730) * day;
+            int nights = 1 + random.nextInt(7);
+            list.add(new Reservation("RES" + i, room.getRoomId(), customers.get(random.nextInt(customers.size())).getCustomerId(),
+                    new Date(in), new Date(in + nights * day), nights * room.getPrice()));
+        }
+        return list;
+    }
+
+    private static EntityTableModel<Customer> customerModel(List<Customer> rows) {
+        return new EntityTableModel<>(rows, new String[]{"ID", "Name", "Phone", "Email"},
+                List.of(Customer::getCustomerId, Customer::getName, Customer::getPhone, Customer::getEmail));
+    }
+
+    private static EntityTableModel<Reservation> reservationModel(List<Reservation> rows) {
+        return new EntityTableModel<>(rows, new String[]{"RID", "Room", "Guest", "In", "Out", "Total"},
+                List.of(Reservation::getResId, Reservation::getRoomId, Reservation::getCustId,
+                        Reservation::getCheckIn, Reservation::getCheckOut, Reservation::getTotal));
+    }
+
+    private static int readAll(EntityTableModel<?> model) {
+        int hash = 0;
+        for (int row = 0; row < model.getRowCount(); row++) {
+            for (int col = 0; col < model.getColumnCount(); col++) {
+                hash += Objects.hashCode(model.getValueAt(row, col));
+            }
+        }
+        return hash;
+    }
+
+    // MEASUREMENT
+    private static long allocatedBytes() {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static class Result {
+        final String name;
+        final double meanMs, p50Ms, maxMs;
+        final long bytesPerOp, gcs;
+
+        Result(String name, long[] nanos, long bytesPerOp, long gcs) {
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            this.name = name;
+            this.meanMs = Arrays.stream(nanos).average().orElse(0) / 1e6;
+            this.p50Ms = sorted[sorted.length / 2] / 1e6;
+            this.maxMs = sorted[sorted.length - 1] / 1e6;
+            this.bytesPerOp = bytesPerOp;
+            this.gcs = gcs;
+        }
+
+        Result(String[] csv) {
+            name = csv[0];
+            meanMs = Double.parseDouble(csv[1]);
+            p50Ms = Double.parseDouble(csv[2]);
+            maxMs = Double.parseDouble(csv[3]);
+            bytesPerOp = Long.parseLong(csv[5]);
+            gcs = Long.parseLong(csv[6]);
+        }
+
+        String csv() {
+            return String.format(Locale.ROOT, "%s,%.3f,%.3f,%.3f,%.2f,%d,%d",
+                    name, meanMs, p50Ms, maxMs, 1000 / meanMs, bytesPerOp, gcs);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-32s mean %10.3f ms  p50 %10.3f ms  max %10.3f ms  %9.2f ops/s  %,14d B/op  %3d gc",
+                    name, meanMs, p50Ms, maxMs, 1000 / meanMs, bytesPerOp, gcs);
+        }
+    }
+
+    // RESULTS AND REGRESSION GATE
+    private void write(String file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("benchmark,mean_ms,p50_ms,max_ms,ops_per_s,bytes_per_op,gc_count");
+            for (Result r : results.values()) out.println(r.csv());
+        }
+        System.out.println("Results written to " + file);
+    }
+
+    private boolean compare(String baselineFile) throws IOException {
+        boolean ok = true;
+        try (BufferedReader in = new BufferedReader(new FileReader(baselineFile))) {
+            in.readLine();
+            for (String line; (line = in.readLine()) != null; ) {
+                Result before = new Result(line.split(","));
+                Result now = results.get(before.name);
+                if (now == null) continue;
+                if (now.meanMs > before.meanMs * REGRESSION) {
+                    System.err.printf(Locale.ROOT, "REGRESSION %s: %.3f ms -> %.3f ms%n", before.name, before.meanMs, now.meanMs);
+                    ok = false;
+                }
+            }
+        }
+        return ok;
+    }
+
+    private static void cleanUp() {
+        for (File f : Objects.requireNonNull(new File(".").listFiles())) {
+            String name = f.getName();
+            if (name.startsWith("rooms.") || name.startsWith("cust.") || name.startsWith("res.")
+                    || name.startsWith(SERIALIZED_FILE) || name.startsWith("repo-bench-")) {
+                File[] inside = f.listFiles();
+                if (inside != null) for (File g : inside) g.delete();
+                f.delete();
+            }
+        }
+    }
+}
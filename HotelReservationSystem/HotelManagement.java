@@ -1,12 +1,66 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.MonthDay;
+import java.time.YearMonth;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import javax.management.JMException;
+import javax.imageio.ImageIO;
+import javax.management.ObjectName;
 import javax.swing.*;
 import javax.swing.border.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableModel;
 import javax.swing.table.TableRowSorter;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
 
 // ENUM
 enum RoomType { SINGLE, DOUBLE, DELUXE, SUITE }
@@ -58,93 +112,5190 @@ class Customer implements Serializable {
 }
 
 //class Reservation with serializable 
+// Room and guest are held as KeyDictionary numbers rather than strings: every reservation of a
+// room shares one int instead of its own copy of the ID, and joins index straight into an array.
+// The guest is its customer ID. Keys are only handed out for IDs read from the files; a booking
+// built from user input looks its IDs up and keeps the text of any it cannot find, so rejected
+// requests leave nothing behind in the dictionary.
 class Reservation implements Serializable {
     private static final long serialVersionUID = 1L;
-    private String resId, roomId, custId;
+    // Serialized form stays the original three strings, so legacy files and journals still read
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("resId", String.class), new ObjectStreamField("roomId", String.class),
+        new ObjectStreamField("custId", String.class), new ObjectStreamField("checkIn", Date.class),
+        new ObjectStreamField("checkOut", Date.class), new ObjectStreamField("total", int.class)
+    };
+    private String resId;
+    private transient int room, guest;
+    private transient String roomText, guestText; // IDs that had no key yet when this was built
     private Date checkIn, checkOut;
     private int total;
 
     public Reservation(String resId, String roomId, String custId, Date in, Date out, int total) {
+        this(resId, KeyDictionary.ROOMS.find(roomId), KeyDictionary.CUSTOMERS.find(custId), in, out, total);
+        if (room < 0) roomText = roomId;
+        if (guest < 0) guestText = custId;
+    }
+
+    Reservation(String resId, int room, int guest, Date in, Date out, int total) {
         this.resId = resId;
-        this.roomId = roomId;
-        this.custId = custId;
+        this.room = room;
+        this.guest = guest;
         this.checkIn = in;
         this.checkOut = out;
         this.total = total;
     }
 
-    public String getResId() { return resId; }
-    public String getRoomId() { return roomId; }
-    public String getCustId() { return custId; }
-    public Date getCheckIn() { return checkIn; }
-    public Date getCheckOut() { return checkOut; }
-    public int getTotal() { return total; }
+    public String getResId() { return resId; }
+    public String getRoomId() { return room >= 0 ? KeyDictionary.ROOMS.id(room) : roomText; }
+    public String getCustId() { return guest >= 0 ? KeyDictionary.CUSTOMERS.id(guest) : guestText; }
+    public Date getCheckIn() { return checkIn; }
+    public Date getCheckOut() { return checkOut; }
+    public int getTotal() { return total; }
+
+    // -1 while the ID is not a known one; looked up again, since the entity may have been loaded since
+    int getRoomKey() {
+        if (room < 0 && roomText != null) room = KeyDictionary.ROOMS.find(roomText);
+        return room;
+    }
+
+    int getGuestKey() {
+        if (guest < 0 && guestText != null) guest = KeyDictionary.CUSTOMERS.find(guestText);
+        return guest;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("resId", resId);
+        fields.put("roomId", getRoomId());
+        fields.put("custId", getCustId());
+        fields.put("checkIn", checkIn);
+        fields.put("checkOut", checkOut);
+        fields.put("total", total);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        resId = (String) fields.get("resId", null);
+        room = KeyDictionary.ROOMS.key((String) fields.get("roomId", null));
+        guest = KeyDictionary.CUSTOMERS.key(EntityFields.guestId((String) fields.get("custId", null))); // was "ID - Name"
+        checkIn = (Date) fields.get("checkIn", null);
+        checkOut = (Date) fields.get("checkOut", null);
+        total = fields.get("total", 0);
+    }
+}
+
+// SURROGATE KEYS
+// Process-wide numbering of room and customer IDs. An ID read from the files gets the next int the
+// first time it is seen and keeps it until exit, so equal IDs share one String and one number. Files
+// keep the IDs themselves; the numbers are never written out. Lookups are lock-free, new IDs are
+// added under a lock. Input from users only ever uses find(), so it cannot grow the dictionary.
+final class KeyDictionary {
+    static final KeyDictionary ROOMS = new KeyDictionary();
+    static final KeyDictionary CUSTOMERS = new KeyDictionary();
+
+    private final ConcurrentHashMap<String, Integer> keys = new ConcurrentHashMap<>();
+    private volatile String[] ids = new String[256];
+    private int size;
+
+    // The number for an ID, assigning one if it is new; null is -1
+    int key(String id) {
+        if (id == null) return -1;
+        Integer key = keys.get(id);
+        return key != null ? key : assign(id);
+    }
+
+    // The number for an ID that already has one, else -1
+    int find(String id) {
+        if (id == null) return -1;
+        Integer key = keys.get(id);
+        return key != null ? key : -1;
+    }
+
+    // The ID behind a number, or null for -1
+    String id(int key) {
+        return key < 0 ? null : ids[key];
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    private synchronized int assign(String id) {
+        Integer key = keys.get(id);
+        if (key != null) return key;
+        String[] table = ids;
+        if (size == table.length) table = Arrays.copyOf(table, size * 2);
+        table[size] = id;
+        ids = table; // publish the slot before the number can be found
+        keys.put(id, size);
+        return size++;
+    }
+}
+
+// BINARY CODEC: compact, versioned format for the entity lists (replaces default serialization)
+// File layout: magic, version, count, records. Strings are length-prefixed UTF-8, enums are
+// ordinals and dates are epoch days, so no class descriptors or boxed fields end up on disk.
+abstract class EntityCodec<T> {
+    static final int MAGIC = 0x48525331; // "HRS1"
+    static final int VERSION = 2; // 2: reservations hold the bare customer ID, not "ID - Name"
+
+    private static final RoomType[] ROOM_TYPES = RoomType.values();
+    private static final BedType[] BED_TYPES = BedType.values();
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    static final EntityCodec<Room> ROOM = new EntityCodec<Room>() {
+        void write(DataOutputStream out, Room r) throws IOException {
+            writeString(out, r.getRoomId());
+            out.writeByte(ordinal(r.getType()));
+            out.writeByte(ordinal(r.getBed()));
+            out.writeInt(r.getPrice());
+        }
+
+        Room read(DataInputStream in, int version) throws IOException {
+            String id = readString(in);
+            RoomType type = constant(ROOM_TYPES, in.readByte());
+            BedType bed = constant(BED_TYPES, in.readByte());
+            return new Room(id, type, bed, in.readInt());
+        }
+    };
+
+    static final EntityCodec<Customer> CUSTOMER = new EntityCodec<Customer>() {
+        void write(DataOutputStream out, Customer c) throws IOException {
+            writeString(out, c.getCustomerId());
+            writeString(out, c.getName());
+            writeString(out, c.getPhone());
+            writeString(out, c.getEmail());
+        }
+
+        Customer read(DataInputStream in, int version) throws IOException {
+            return new Customer(readString(in), readString(in), readString(in), readString(in));
+        }
+    };
+
+    static final EntityCodec<Reservation> RESERVATION = new EntityCodec<Reservation>() {
+        void write(DataOutputStream out, Reservation r) throws IOException {
+            writeString(out, r.getResId());
+            writeString(out, r.getRoomId());
+            writeString(out, r.getCustId());
+            out.writeInt(toEpochDay(r.getCheckIn()));
+            out.writeInt(toEpochDay(r.getCheckOut()));
+            out.writeInt(r.getTotal());
+        }
+
+        Reservation read(DataInputStream in, int version) throws IOException {
+            String resId = readString(in), roomId = readString(in), custId = readString(in);
+            if (version < 2) custId = EntityFields.guestId(custId);
+            Date in1 = fromEpochDay(in.readInt()), out1 = fromEpochDay(in.readInt());
+            return new Reservation(resId, KeyDictionary.ROOMS.key(roomId), KeyDictionary.CUSTOMERS.key(custId),
+                    in1, out1, in.readInt());
+        }
+    };
+
+    abstract void write(DataOutputStream out, T item) throws IOException;
+    abstract T read(DataInputStream in, int version) throws IOException;
+
+    byte[] encodeList(List<?> items) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(16 + items.size() * 32);
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(items.size());
+        for (Object item : items) write(out, cast(item));
+        return buf.toByteArray();
+    }
+
+    ArrayList<T> decodeList(byte[] bytes, int off, int len) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, off, len));
+        if (in.readInt() != MAGIC) throw new IOException("Not an entity file");
+        int version = checkVersion(in.readUnsignedByte());
+        int count = in.readInt();
+        ArrayList<T> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) list.add(read(in, version));
+        return list;
+    }
+
+    // Streaming counterpart of decodeList: checks the header and returns {version, count}; the
+    // records are then read one at a time with read()
+    static int[] readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not an entity file");
+        int version = checkVersion(in.readUnsignedByte());
+        return new int[]{version, in.readInt()};
+    }
+
+    // Single records (journal payloads) carry their own version byte
+    byte[] encodeRecord(Object item) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeByte(VERSION);
+        write(out, cast(item));
+        return buf.toByteArray();
+    }
+
+    T decodeRecord(byte[] bytes, int off, int len) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, off, len));
+        return read(in, checkVersion(in.readUnsignedByte()));
+    }
+
+    static boolean isEncoded(byte[] bytes, int off, int len) {
+        return len >= 4 && ((bytes[off] & 0xff) << 24 | (bytes[off + 1] & 0xff) << 16
+                | (bytes[off + 2] & 0xff) << 8 | (bytes[off + 3] & 0xff)) == MAGIC;
+    }
+
+    static int toEpochDay(Date date) {
+        if (date == null) return NO_DATE;
+        return (int) date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    static Date fromEpochDay(int day) {
+        if (day == NO_DATE) return null;
+        return Date.from(LocalDate.ofEpochDay(day).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, utf8.length + 1);
+        out.write(utf8);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int len = readVarInt(in) - 1;
+        if (len < 0) return null;
+        byte[] utf8 = new byte[len];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarInt(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("Malformed length");
+    }
+
+    private static int checkVersion(int version) throws IOException {
+        if (version < 1 || version > VERSION) throw new IOException("Unsupported format version " + version);
+        return version;
+    }
+
+    private static int ordinal(Enum<?> e) {
+        return e != null ? e.ordinal() : -1;
+    }
+
+    private static <E> E constant(E[] values, int ordinal) {
+        return ordinal >= 0 && ordinal < values.length ? values[ordinal] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T cast(Object item) {
+        return (T) item;
+    }
+}
+
+// METRICS
+// Counters and latency histograms per operation and file ("save res.dat", "search", ...), each one
+// published as an MXBean under HotelReservationSystem:type=Operation. Every timed operation is also
+// a JFR event (hotel.Operation), so a flight recording lines them up with GC and I/O.
+// --metrics-log <seconds> prints the table periodically.
+final class Metrics {
+    private static final String DOMAIN = "HotelReservationSystem";
+    private static final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    // Times one operation: end() or fail() it exactly once
+    static Span start(String operation, String file) {
+        Span span = new Span(operation, file);
+        span.begin();
+        return span;
+    }
+
+    static void error(String operation, String file) {
+        operation(operation, file).errors.increment();
+    }
+
+    static Operation operation(String operation, String file) {
+        String name = file == null ? operation : operation + " " + file;
+        Operation op = operations.get(name);
+        return op != null ? op : operations.computeIfAbsent(name, Metrics::register);
+    }
+
+    static String dump() {
+        StringBuilder out = new StringBuilder(String.format(Locale.ROOT, "%-24s %10s %7s %14s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "bytes", "mean ms", "p50 ms", "p99 ms", "max ms"));
+        for (Operation op : new TreeMap<>(operations).values()) {
+            out.append(String.format(Locale.ROOT, "%-24s %10d %7d %14d %10.3f %10.3f %10.3f %10.3f%n", op.name,
+                    op.getCount(), op.getErrors(), op.getBytes(), op.getMeanMillis(), op.getP50Millis(),
+                    op.getP99Millis(), op.getMaxMillis()));
+        }
+        return out.toString();
+    }
+
+    static void logEvery(int seconds) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Metrics-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(() -> System.out.print("Metrics " + new Date() + "\n" + dump()),
+                seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private static Operation register(String name) {
+        Operation op = new Operation(name);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(op,
+                    new ObjectName(DOMAIN + ":type=Operation,name=" + ObjectName.quote(name)));
+        } catch (JMException e) {
+            System.err.println("Metrics Error: " + e.getMessage());
+        }
+        return op;
+    }
+
+    public interface OperationMXBean {
+        long getCount();
+        long getErrors();
+        long getBytes();
+        double getMeanMillis();
+        double getP50Millis();
+        double getP99Millis();
+        double getP999Millis();
+        double getMaxMillis();
+        void reset();
+    }
+
+    static final class Operation implements OperationMXBean {
+        final String name;
+        final Histogram latency = new Histogram();
+        final LongAdder errors = new LongAdder(), bytes = new LongAdder();
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        @Override public long getCount() { return latency.count(); }
+        @Override public long getErrors() { return errors.sum(); }
+        @Override public long getBytes() { return bytes.sum(); }
+        @Override public double getMeanMillis() { return latency.mean() / 1e6; }
+        @Override public double getP50Millis() { return latency.percentile(50) / 1e6; }
+        @Override public double getP99Millis() { return latency.percentile(99) / 1e6; }
+        @Override public double getP999Millis() { return latency.percentile(99.9) / 1e6; }
+        @Override public double getMaxMillis() { return latency.max() / 1e6; }
+
+        @Override
+        public void reset() {
+            latency.reset();
+            errors.reset();
+            bytes.reset();
+        }
+    }
+
+    @Name("hotel.Operation")
+    @Label("Hotel Operation")
+    @Category("Hotel Reservation System")
+    @StackTrace(false)
+    static final class Span extends Event {
+        @Label("Operation") String operation;
+        @Label("File") String file;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Failed") boolean failed;
+        private final transient long start = System.nanoTime();
+
+        private Span(String operation, String file) {
+            this.operation = operation;
+            this.file = file;
+        }
+
+        void end(long bytes) {
+            finish(bytes, false);
+        }
+
+        void fail() {
+            finish(0, true);
+        }
+
+        private void finish(long bytes, boolean failed) {
+            long nanos = System.nanoTime() - start;
+            this.bytes = bytes;
+            this.failed = failed;
+            commit();
+            Operation op = operation(operation, file);
+            op.latency.record(nanos);
+            op.bytes.add(bytes);
+            if (failed) op.errors.increment();
+        }
+    }
+
+    // Log-linear buckets in the style of HdrHistogram: 32 linear steps per power of two, so every
+    // value lands within about 3% of its true size in a fixed array, recorded without locks
+    static final class Histogram {
+        private static final int SUB_BITS = 5, SUB = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB);
+        private final LongAdder total = new LongAdder(), sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            value = Math.max(0, value);
+            counts.incrementAndGet(index(value));
+            total.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        long count() { return total.sum(); }
+        long max() { return max.get(); }
+        double mean() {
+            long n = count();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        // Highest value of the bucket holding the given percentile (0..100)
+        long percentile(double percent) {
+            long rank = (long) Math.ceil(percent / 100 * count()), seen = 0;
+            if (rank == 0) return 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(highest(i), max());
+            }
+            return max();
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+            total.reset();
+            sum.reset();
+            max.reset();
+        }
+
+        static int index(long value) {
+            if (value < SUB) return (int) value;
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            return (exp - SUB_BITS + 1) * SUB + (int) (value >>> (exp - SUB_BITS)) - SUB;
+        }
+
+        static long highest(int index) {
+            if (index < SUB) return index;
+            long next = (long) (SUB + index % SUB + 1) << (index / SUB - 1);
+            return next > 0 ? next - 1 : Long.MAX_VALUE;
+        }
+    }
+}
+
+// DATA PERSISTENCE with serialization
+class DataManager {
+    private static final String ROOM_FILE = "rooms.dat";
+    private static final String CUST_FILE = "cust.dat";
+    private static final String RES_FILE = "res.dat";
+    private static final String RES_SLOTS = "res.slots";
+    private static final String RES_DICT = "res.dict";
+
+    // Journal: every edit is appended to "<file>.log" and folded into the snapshot once enough pile up
+    private static final String JOURNAL_SUFFIX = ".log";
+    private static final int JOURNAL_MAGIC = 0x48524a32; // "HRJ2": payloads in EntityCodec format
+    private static final int LEGACY_JOURNAL_MAGIC = 0x48524a31; // "HRJ1": payloads in Java serialization
+    private static final int COMPACT_AFTER = 1000;
+    private static final byte OP_INSERT = 1, OP_UPDATE = 2, OP_DELETE = 3;
+
+    // Snapshot envelope: magic, generation, payload length, CRC32 of the payload. The previous
+    // generation is kept as "<file>.bak" and new ones are written to "<file>.tmp" first
+    private static final int SNAPSHOT_MAGIC = 0x48525346; // "HRSF"
+    private static final int ENVELOPE = 20;
+    private static final String BACKUP_SUFFIX = ".bak", TEMP_SUFFIX = ".tmp";
+    private static final Map<String, Long> generation = new ConcurrentHashMap<>();
+
+    // CRC of the snapshot each journal was started on, and how many records it holds
+    private static final Map<String, Long> snapshotCrc = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> journalSize = new ConcurrentHashMap<>();
+
+    private static volatile MappedReservationStore resStore;
+    // Set by the writer: res.dat took edits made on the mirror (written), or something else (stale).
+    // The mirror itself is only touched on the EDT, see settleResStore
+    private static volatile boolean resStoreWritten, resStoreStale;
+    private static volatile AvailabilityIndex availability;
+    private static Analytics analytics;
+    private static ReservationArchive archive;
+    private static final History history = new History();
+
+    private static final Map<String, EntityCodec<?>> codecs = new ConcurrentHashMap<>();
+    static {
+        codecs.put(ROOM_FILE, EntityCodec.ROOM);
+        codecs.put(CUST_FILE, EntityCodec.CUSTOMER);
+        codecs.put(RES_FILE, EntityCodec.RESERVATION);
+    }
+
+    // Storage backend, from storage.properties or -Dhotel.storage (see Repositories). "snapshot" is the
+    // files above. Any other backend holds rooms, customers and reservations in a Repository instead:
+    // the lists are read from it in ID order and the writer applies each edit to it by ID. The first
+    // open copies the .dat file in; the .dat files themselves are left alone from then on
+    private static final String BACKEND = Repositories.backend();
+    private static final Map<String, Repository<String, Object>> repositories = new ConcurrentHashMap<>();
+
+    // Shared in-memory datasets: loaded once, handed to every form, and only re-read when the file
+    // changed on disk behind our back (its size/mtime no longer match what our own writes left)
+    private static final Map<String, ArrayList<?>> cache = new HashMap<>();
+    private static final Map<String, Long> diskStamp = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> pending = new ConcurrentHashMap<>();
+    private static final Map<String, List<Runnable>> listeners = new HashMap<>();
+    // Told when a file was re-read because someone else changed it, so every row may differ. While any
+    // are registered, the files are checked every RELOAD_CHECK_MS, since an open table never asks
+    private static final Map<String, List<Runnable>> reloadListeners = new HashMap<>();
+    private static final int RELOAD_CHECK_MS = 2000;
+    private static javax.swing.Timer reloadCheck;
+
+    // Primary-key indexes (ID -> entity), built on first use and kept in step by insert/update/delete
+    private static final Map<String, Function<Object, String>> keys = new HashMap<>();
+    private static final Map<String, String> keyNames = new HashMap<>();
+    private static final Map<String, Map<String, Object>> keyIndex = new HashMap<>();
+    // Rows whose ID was already taken when the index was built (files written before IDs were checked).
+    // The index points at the first one; the others take over if it goes, so no row becomes unfindable
+    private static final Map<String, Map<String, List<Object>>> duplicateKeys = new HashMap<>();
+    // Rooms and customers again, by KeyDictionary key, so a reservation joins with one array read
+    private static final Map<String, KeyDictionary> joinKeys = new HashMap<>();
+    private static final Map<String, Object[]> joins = new HashMap<>();
+    static {
+        keys.put(ROOM_FILE, o -> ((Room) o).getRoomId());
+        keys.put(CUST_FILE, o -> ((Customer) o).getCustomerId());
+        keys.put(RES_FILE, o -> ((Reservation) o).getResId());
+        joinKeys.put(ROOM_FILE, KeyDictionary.ROOMS);
+        joinKeys.put(CUST_FILE, KeyDictionary.CUSTOMERS);
+        keyNames.put(ROOM_FILE, "Room ID");
+        keyNames.put(CUST_FILE, "Customer ID");
+        keyNames.put(RES_FILE, "Reservation ID");
+    }
+
+    // Async persistence: a single background thread owns every write, so the EDT never waits on the disk
+    private static final BlockingQueue<PendingWrite> writes = new LinkedBlockingQueue<>();
+    private static final Set<String> compacting = ConcurrentHashMap.newKeySet();
+    // After a failed write the file no longer holds what the list holds, and every journal record
+    // queued behind it was numbered against rows the file does not have. So the file's writes keep
+    // failing until the EDT has put the list back to what is on disk and moved it to a new epoch,
+    // see revertFailed. broken maps a file to the last epoch whose writes must fail. Full saves that
+    // fail leave the previous snapshot and journal in place, so they break nothing
+    private static final Map<String, Integer> epochs = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> broken = new ConcurrentHashMap<>();
+    static {
+        Thread writer = new Thread(DataManager::writeLoop, "DataManager-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(DataManager::flush));
+    }
+
+    // A queued full save (snapshot != null), journal record, or keyed edit for a Repository (the ID
+    // it removed and the items it stored) for one file
+    private static final class PendingWrite {
+        final String fileName;
+        final Object snapshot;
+        final byte[] record;
+        final int records; // journal records packed into record (bulk inserts carry many)
+        final boolean fromStore;
+        final String removed;
+        final List<?> stored;
+        final int epoch;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingWrite(String fileName, Object snapshot, byte[] record, boolean fromStore) {
+            this(fileName, snapshot, record, record != null ? 1 : 0, fromStore);
+        }
+
+        PendingWrite(String fileName, Object snapshot, byte[] record, int records, boolean fromStore) {
+            this.fileName = fileName;
+            this.snapshot = snapshot;
+            this.record = record;
+            this.records = records;
+            this.fromStore = fromStore;
+            this.removed = null;
+            this.stored = null;
+            this.epoch = fileName != null ? epochs.getOrDefault(fileName, 0) : 0;
+        }
+
+        PendingWrite(String fileName, String removed, List<?> stored) {
+            this.fileName = fileName;
+            this.snapshot = null;
+            this.record = null;
+            this.records = 0;
+            this.fromStore = false;
+            this.removed = removed;
+            this.stored = stored;
+            this.epoch = epochs.getOrDefault(fileName, 0);
+        }
+    }
+
+    // Generic save method: entity lists use EntityCodec, anything else falls back to serialization.
+    // Also compacts: the journal is dropped afterwards. Blocks until written; throws
+    // UncheckedIOException if the write failed
+    public static void save(Object obj, String fileName) {
+        try {
+            saveAsync(obj, fileName).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw new UncheckedIOException((IOException) cause);
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw e;
+        }
+    }
+
+    public static CompletableFuture<Void> saveAsync(Object obj, String fileName) {
+        Object snapshot = obj instanceof List ? new ArrayList<>((List<?>) obj) : obj;
+        return enqueue(new PendingWrite(fileName, snapshot, null, obj == resStore));
+    }
+
+    // Blocks until every queued write has reached the file (exit button and shutdown hook)
+    public static void flush() {
+        enqueue(new PendingWrite(null, null, null, false)).join();
+    }
+
+    //Generic load method, reads both EntityCodec files and files written by older versions
+    public static Object load(String fileName) {
+        if (repository(fileName) != null) return loadList(fileName);
+        flush();
+        Snapshot snapshot = readSnapshot(fileName);
+        return snapshot != null ? snapshot.data : null;
+    }
+
+    // Shared lists: every caller gets the same instance, so edits made through DataManager are
+    // visible everywhere. Meant to be used from the EDT
+    public static ArrayList<Room> getRooms() {
+        return cached(ROOM_FILE);
+    }
+
+    public static ArrayList<Customer> getCust() {
+        return cached(CUST_FILE);
+    }
+
+    // Startup: reads a shared list on the pool (file, decode, journal replay), then hands it to the
+    // cache on the EDT, unless something loaded the list or changed the file in the meantime
+    static CompletableFuture<Void> preload(String fileName, Executor pool) {
+        long[] readAt = new long[1];
+        return CompletableFuture.supplyAsync(() -> {
+            readAt[0] = stamp(fileName);
+            return loadList(fileName);
+        }, pool).thenAcceptAsync(list -> {
+            if (cache.containsKey(fileName) || readAt[0] != stamp(fileName)) return;
+            cache.put(fileName, list);
+            diskStamp.put(fileName, readAt[0]);
+        }, SwingUtilities::invokeLater);
+    }
+
+    // Startup: opens the archive, brings the res.dat mirror up to date (decoding res.dat only if the
+    // slots are out of date) and builds the calendars and figures, all on the pool. The EDT only adopts
+    // them, unless the mirror was opened or res.dat or the rooms changed in the meantime
+    static CompletableFuture<Void> preloadReservations(CompletableFuture<Void> rooms, Executor pool) {
+        if (repository(RES_FILE) != null) {
+            return CompletableFuture.allOf(rooms, CompletableFuture.runAsync(DataManager::archive, pool),
+                    preload(RES_FILE, pool));
+        }
+        Preloaded loaded = new Preloaded();
+        CompletableFuture<Void> store = CompletableFuture.runAsync(() -> {
+            archive();
+            if (resStore != null) return;
+            loaded.stamp = stamp(RES_FILE);
+            try {
+                MappedReservationStore mirror = new MappedReservationStore(RES_SLOTS, RES_DICT);
+                File snapshot = new File(RES_FILE), journal = new File(RES_FILE + JOURNAL_SUFFIX);
+                if (!mirror.isCurrent(snapshot, journal)) {
+                    mirror.rebuild(getRes());
+                    mirror.markCurrent(baseCrc(RES_FILE), journalSize.getOrDefault(RES_FILE, 0), snapshot, journal);
+                }
+                loaded.availability = new AvailabilityIndex(mirror);
+                loaded.store = mirror;
+            } catch (IOException e) {
+                System.err.println("Persistence Error: " + e.getMessage());
+            }
+        }, pool);
+        return rooms.thenAcceptAsync(v -> loaded.rooms = new ArrayList<>(getRooms()), SwingUtilities::invokeLater)
+                .thenAcceptBothAsync(store, (a, b) -> {
+                    if (loaded.store != null) loaded.analytics = new Analytics(loaded.rooms, loaded.store, archive().roomNights());
+                }, pool)
+                .thenRunAsync(() -> {
+                    if (loaded.store == null || resStore != null || loaded.stamp != stamp(RES_FILE)) return;
+                    resStore = loaded.store;
+                    resStoreStale = false;
+                    snapshotCrc.put(RES_FILE, resStore.getSnapshotCrc());
+                    journalSize.put(RES_FILE, resStore.getJournalRecords());
+                    if (availability == null) availability = loaded.availability;
+                    if (analytics == null && loaded.rooms.equals(getRooms())) analytics = loaded.analytics;
+                }, SwingUtilities::invokeLater);
+    }
+
+    // What preloadReservations builds off the EDT, handed over in one step
+    private static final class Preloaded {
+        long stamp;
+        List<Room> rooms;
+        MappedReservationStore store;
+        AvailabilityIndex availability;
+        Analytics analytics;
+    }
+
+    // A fresh copy of every reservation read from res.dat (the forms use getResStore instead)
+    public static ArrayList<Reservation> getRes() {
+        return loadList(RES_FILE);
+    }
+
+    // Reservations for the table, read straight off the memory-mapped mirror of res.dat.
+    // The mirror is only rebuilt when res.dat or its journal changed behind its back
+    public static List<Reservation> getResStore() {
+        if (repository(RES_FILE) != null) return cached(RES_FILE); // no res.dat to mirror
+        if (resStore != null && pending.getOrDefault(RES_FILE, 0) > 0) return resStore;
+        settleResStore();
+        try {
+            if (resStore == null) resStore = new MappedReservationStore(RES_SLOTS, RES_DICT);
+            if (resStore.isCurrent(new File(RES_FILE), new File(RES_FILE + JOURNAL_SUFFIX))) {
+                snapshotCrc.put(RES_FILE, resStore.getSnapshotCrc());
+                journalSize.put(RES_FILE, resStore.getJournalRecords());
+            } else {
+                resStore.rebuild(getRes());
+                resStoreStale = false;
+                syncResStore();
+                availability = null;
+                analytics = null;
+                dropIndex(RES_FILE);
+                fireChanged(RES_FILE);
+                fireReloaded(RES_FILE);
+            }
+            return resStore;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Persistence Error: " + e.getMessage());
+            return getRes();
+        }
+    }
+
+    // Every reservation: the archived months, then res.dat. Archived rows are read when asked for.
+    // The list is read-only; edits made through insert/update/delete go to whichever side owns the row
+    public static List<Reservation> getReservations() {
+        archive();
+        return history;
+    }
+
+    static synchronized ReservationArchive archive() {
+        if (archive == null) archive = ReservationArchive.open();
+        return archive;
+    }
+
+    // Moves stays that ended before this month out of res.dat into the archive. Runs once a month at
+    // startup, before any form holds row numbers
+    public static void archivePastMonths() {
+        ReservationArchive months = archive();
+        int activeFrom = (int) LocalDate.now().withDayOfMonth(1).toEpochDay();
+        if (months.activeFrom() >= activeFrom) return;
+
+        Map<Integer, List<Reservation>> past = new TreeMap<>();
+        ArrayList<Reservation> keep = new ArrayList<>();
+        for (Reservation r : getRes()) {
+            if (r.getCheckIn() != null && r.getCheckOut() != null && EntityCodec.toEpochDay(r.getCheckOut()) <= activeFrom) {
+                past.computeIfAbsent(ReservationArchive.monthOf(r.getCheckIn()), m -> new ArrayList<>()).add(r);
+            } else {
+                keep.add(r);
+            }
+        }
+        if (!past.isEmpty()) {
+            months.append(past);
+            save(keep, RES_FILE);
+            availability = null;
+            analytics = null;
+            dropIndex(RES_FILE);
+        }
+        months.setActiveFrom(activeFrom);
+    }
+
+    private static final class History extends AbstractList<Reservation> implements RandomAccess {
+        @Override
+        public Reservation get(int index) {
+            int archived = archive.size();
+            return index < archived ? archive.get(index) : active().get(index - archived);
+        }
+
+        @Override
+        public int size() {
+            return archive.size() + active().size();
+        }
+
+        // The store the forms already hold; getResStore() would stat the files on every cell
+        private List<Reservation> active() {
+            return resStore != null ? resStore : getResStore();
+        }
+    }
+
+    public static void addChangeListener(String fileName, Runnable listener) {
+        listeners.computeIfAbsent(fileName, f -> new ArrayList<>()).add(listener);
+    }
+
+    public static void removeChangeListener(String fileName, Runnable listener) {
+        List<Runnable> registered = listeners.get(fileName);
+        if (registered != null) registered.remove(listener);
+    }
+
+    private static void fireChanged(String fileName) {
+        for (Runnable listener : new ArrayList<>(listeners.getOrDefault(fileName, Collections.emptyList()))) {
+            listener.run();
+        }
+    }
+
+    public static void addReloadListener(String fileName, Runnable listener) {
+        reloadListeners.computeIfAbsent(fileName, f -> new ArrayList<>()).add(listener);
+        if (reloadCheck == null) {
+            reloadCheck = new javax.swing.Timer(RELOAD_CHECK_MS, e -> checkForReloads());
+            reloadCheck.start();
+        }
+    }
+
+    public static void removeReloadListener(String fileName, Runnable listener) {
+        List<Runnable> registered = reloadListeners.get(fileName);
+        if (registered != null) registered.remove(listener);
+    }
+
+    private static void fireReloaded(String fileName) {
+        for (Runnable listener : new ArrayList<>(reloadListeners.getOrDefault(fileName, Collections.emptyList()))) {
+            listener.run();
+        }
+    }
+
+    // Re-reads any watched file another process has written; cached() and getResStore() only stat
+    // the files unless something changed
+    private static void checkForReloads() {
+        boolean watching = false;
+        for (Map.Entry<String, List<Runnable>> entry : new ArrayList<>(reloadListeners.entrySet())) {
+            if (entry.getValue().isEmpty()) continue;
+            watching = true;
+            if (entry.getKey().equals(RES_FILE)) getResStore(); else cached(entry.getKey());
+        }
+        if (!watching) {
+            reloadCheck.stop();
+            reloadCheck = null;
+        }
+    }
+
+    // Serves the cached list unless the file was changed by someone else. While our own writes are
+    // still queued the cache is by definition newer than the file, so the check is skipped
+    @SuppressWarnings("unchecked")
+    private static <T> ArrayList<T> cached(String fileName) {
+        ArrayList<T> list = (ArrayList<T>) cache.get(fileName);
+        if (list != null && (pending.getOrDefault(fileName, 0) > 0
+                || diskStamp.getOrDefault(fileName, 0L) == stamp(fileName))) {
+            return list;
+        }
+
+        ArrayList<T> fresh = loadList(fileName);
+        if (list == null) {
+            diskStamp.put(fileName, stamp(fileName));
+            cache.put(fileName, fresh);
+            return fresh;
+        }
+        reload(fileName, list, fresh);
+        return list;
+    }
+
+    // Reload in place so forms holding the list see the new contents
+    private static <T> void reload(String fileName, ArrayList<T> list, ArrayList<T> fresh) {
+        diskStamp.put(fileName, stamp(fileName));
+        list.clear();
+        list.addAll(fresh);
+        dropIndex(fileName);
+        if (fileName.equals(ROOM_FILE)) analytics = null;
+        fireChanged(fileName);
+        fireReloaded(fileName);
+    }
+
+    private static long stamp(String fileName) {
+        File snapshot = new File(fileName), journal = new File(fileName + JOURNAL_SUFFIX);
+        return (snapshot.lastModified() * 31 + snapshot.length()) * 31 + journal.length();
+    }
+
+    // Runs on the EDT once the writer has drained res.dat: if every write since the last stamp came
+    // from the mirror, the files now hold exactly what it holds, so it is stamped current again
+    private static void settleResStore() {
+        if (resStore == null || !resStoreWritten || pending.getOrDefault(RES_FILE, 0) > 0) return;
+        resStoreWritten = false;
+        if (!resStoreStale) syncResStore();
+    }
+
+    private static void syncResStore() {
+        resStore.markCurrent(baseCrc(RES_FILE), journalSize.getOrDefault(RES_FILE, 0),
+                new File(RES_FILE), new File(RES_FILE + JOURNAL_SUFFIX));
+    }
+
+    // Journaled edits: change the in-memory list, then queue one record instead of rewriting the file.
+    // The future completes once the record is on disk
+    // Throws DuplicateIdException (leaving the list untouched) if the item's ID is already taken
+    public static <T> CompletableFuture<Void> insert(List<T> list, T item, String fileName) {
+        if (list == history) return insert(active(list), item, fileName);
+        checkUnique(fileName, null, item);
+        list.add(item);
+        reindex(fileName, null, item);
+        CompletableFuture<Void> done = journal(list, fileName, OP_INSERT, list.size() - 1, null, item);
+        fireChanged(fileName);
+        return done;
+    }
+
+    public static <T> CompletableFuture<Void> update(List<T> list, int index, T item, String fileName) {
+        if (list == history) {
+            int archived = archive.size();
+            if (index >= archived) return update(active(list), index - archived, item, fileName);
+            Reservation old = archive.get(index), stay = (Reservation) item;
+            checkUnique(fileName, old, item);
+            if (EntityCodec.toEpochDay(stay.getCheckOut()) > archive.activeFrom()) {
+                throw new InvalidRequestException("Archived stays must end by " + LocalDate.ofEpochDay(archive.activeFrom())
+                        + "; cancel this one and book it again.");
+            }
+            CompletableFuture<Void> done = archived(() -> archive.set(index, stay));
+            if (done.isCompletedExceptionally()) {
+                redrawHistory();
+                return done;
+            }
+            reindex(fileName, old, item);
+            fireChanged(fileName);
+            if (archive.get(index) != stay) redrawHistory(); // moved to another month
+            return done;
+        }
+        checkUnique(fileName, list.get(index), item);
+        T old = list.set(index, item);
+        reindex(fileName, old, item);
+        CompletableFuture<Void> done = journal(list, fileName, OP_UPDATE, index, old, item);
+        fireChanged(fileName);
+        return done;
+    }
+
+    public static <T> CompletableFuture<Void> delete(List<T> list, int index, String fileName) {
+        if (list == history) {
+            int archived = archive.size();
+            if (index >= archived) return delete(active(list), index - archived, fileName);
+            Reservation old = archive.get(index);
+            CompletableFuture<Void> done = archived(() -> archive.remove(index));
+            if (done.isCompletedExceptionally()) {
+                redrawHistory();
+                return done;
+            }
+            reindex(fileName, old, null);
+            fireChanged(fileName);
+            return done;
+        }
+        T old = list.remove(index);
+        reindex(fileName, old, null);
+        CompletableFuture<Void> done = journal(list, fileName, OP_DELETE, index, old, null);
+        fireChanged(fileName);
+        return done;
+    }
+
+    // Month files are rewritten in place, so their edits are already on disk (or failed, and were
+    // not made) on return
+    private static CompletableFuture<Void> archived(Runnable edit) {
+        try {
+            edit.run();
+            return CompletableFuture.completedFuture(null);
+        } catch (UncheckedIOException e) {
+            return CompletableFuture.failedFuture(e.getCause());
+        }
+    }
+
+    // The service fires its row event for an archive edit after this returns. When the edit failed,
+    // or moved the stay to another month, that event is wrong, so a full redraw is queued behind it
+    private static void redrawHistory() {
+        SwingUtilities.invokeLater(() -> fireReloaded(RES_FILE));
+    }
+
+    // Bulk append for imports: all items are checked first, then the batch goes to the journal as a
+    // single write. It is not compacted here; an import saves once when it is done
+    public static <T> CompletableFuture<Void> insertAll(List<T> list, List<T> items, String fileName) {
+        if (list == history) return insertAll(active(list), items, fileName);
+        Function<Object, String> key = keys.get(fileName);
+        Set<String> batchIds = new HashSet<>();
+        for (T item : items) {
+            checkUnique(fileName, null, item);
+            if (key != null && !batchIds.add(key.apply(item))) {
+                throw new DuplicateIdException(keyNames.get(fileName) + " " + key.apply(item) + " already exists.");
+            }
+        }
+        if (items.isEmpty()) return CompletableFuture.completedFuture(null);
+        boolean keyed = repository(fileName) != null;
+        try {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            for (T item : items) {
+                list.add(item);
+                reindex(fileName, null, item);
+                if (!keyed) records.write(journalRecord(fileName, OP_INSERT, list.size() - 1, item));
+            }
+            CompletableFuture<Void> done = enqueue(keyed ? new PendingWrite(fileName, null, new ArrayList<>(items))
+                    : new PendingWrite(fileName, null, records.toByteArray(), items.size(), list == resStore));
+            fireChanged(fileName);
+            return done;
+        } catch (IOException e) {
+            System.err.println("Persistence Error: " + e.getMessage());
+            unwritten(fileName);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // New and imported bookings always go to res.dat; the archive only takes rows at roll-over
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> active(List<T> list) {
+        return (List<T>) getResStore();
+    }
+
+    // Room availability, answered from a per-room index instead of scanning every reservation
+    public static boolean isAvailable(String roomId, Date in, Date out) {
+        return isAvailable(roomId, in, out, null);
+    }
+
+    // ignore: the booking being edited, so it does not clash with itself
+    public static boolean isAvailable(String roomId, Date in, Date out, Reservation ignore) {
+        return availability().isAvailable(roomId, EntityCodec.toEpochDay(in), EntityCodec.toEpochDay(out), ignore);
+    }
+
+    // Rooms of the given type and bed (null matches any) with no booking overlapping [in, out)
+    public static List<Room> findFreeRooms(RoomType type, BedType bed, Date in, Date out) {
+        AvailabilityIndex index = availability();
+        int from = EntityCodec.toEpochDay(in), to = EntityCodec.toEpochDay(out);
+        List<Room> free = new ArrayList<>();
+        for (Room room : getRooms()) {
+            if ((type == null || room.getType() == type) && (bed == null || room.getBed() == bed)
+                    && index.isAvailable(room.getRoomId(), from, to)) {
+                free.add(room);
+            }
+        }
+        return free;
+    }
+
+    // Built on the EDT from the reservation store; once built it is safe to use from any thread
+    static AvailabilityIndex availability() {
+        if (availability == null) availability = new AvailabilityIndex(getResStore());
+        return availability;
+    }
+
+    // The index if it has been built, without touching the store (for callers off the EDT)
+    static AvailabilityIndex builtAvailability() {
+        return availability;
+    }
+
+    // Occupancy and revenue figures, built on first use and kept current by every edit. Archived
+    // months come from the totals in the archive's manifest, so only res.dat is walked
+    static Analytics analytics() {
+        if (analytics == null) analytics = new Analytics(getRooms(), getResStore(), archive().roomNights());
+        return analytics;
+    }
+
+    public static Room findRoom(String roomId) {
+        return (Room) primaryIndex(ROOM_FILE).get(roomId);
+    }
+
+    public static Customer findCustomer(String customerId) {
+        return (Customer) primaryIndex(CUST_FILE).get(customerId);
+    }
+
+    // The room and guest a reservation points at, or null if they are gone
+    public static Room roomOf(Reservation r) {
+        primaryIndex(ROOM_FILE); // keys every stored room ID before the reservation looks its own up
+        return (Room) joined(ROOM_FILE, r.getRoomKey());
+    }
+
+    public static Customer guestOf(Reservation r) {
+        primaryIndex(CUST_FILE);
+        return (Customer) joined(CUST_FILE, r.getGuestKey());
+    }
+
+    public static Reservation findReservation(String resId) {
+        Reservation r = (Reservation) primaryIndex(RES_FILE).get(resId);
+        return r != null ? r : archive().find(resId);
+    }
+
+    // Row of the reservation in getReservations(), or -1
+    public static int indexOfReservation(String resId) {
+        List<Reservation> active = getResStore();
+        int row = -1;
+        if (active instanceof MappedReservationStore) {
+            row = ((MappedReservationStore) active).indexOfResId(resId);
+        } else {
+            for (int i = 0; i < active.size() && row < 0; i++) {
+                if (Objects.equals(active.get(i).getResId(), resId)) row = i;
+            }
+        }
+        return row >= 0 ? archive().size() + row : archive().rowOf(resId);
+    }
+
+    private static Map<String, Object> primaryIndex(String fileName) {
+        Map<String, Object> index = keyIndex.get(fileName);
+        if (index == null) {
+            List<?> data = fileName.equals(RES_FILE) ? getResStore() : cached(fileName);
+            Function<Object, String> key = keys.get(fileName);
+            index = new HashMap<>(data.size() * 2);
+            KeyDictionary dictionary = joinKeys.get(fileName);
+            if (dictionary != null) joins.put(fileName, new Object[dictionary.size() + 16]);
+            Map<String, List<Object>> duplicates = new HashMap<>();
+            for (Object item : data) {
+                String id = key.apply(item);
+                if (index.putIfAbsent(id, item) == null) {
+                    join(fileName, item, item);
+                } else {
+                    duplicates.computeIfAbsent(id, k -> new ArrayList<>()).add(item);
+                }
+            }
+            if (!duplicates.isEmpty()) {
+                System.err.println("Persistence Error: " + fileName + " has duplicate "
+                        + keyNames.get(fileName) + "s " + duplicates.keySet());
+            }
+            duplicateKeys.put(fileName, duplicates);
+            keyIndex.put(fileName, index);
+        }
+        return index;
+    }
+
+    private static void dropIndex(String fileName) {
+        keyIndex.remove(fileName);
+        duplicateKeys.remove(fileName);
+        joins.remove(fileName);
+    }
+
+    // Takes an entity out of the index; a duplicate of its ID, if any, becomes the indexed one
+    private static void unindex(String fileName, Map<String, Object> index, String id, Object item) {
+        List<Object> duplicates = duplicateKeys.get(fileName).get(id);
+        if (index.get(id) != item) {
+            if (duplicates != null) duplicates.remove(item);
+            return;
+        }
+        if (duplicates == null) {
+            index.remove(id);
+            join(fileName, item, null);
+            return;
+        }
+        Object next = duplicates.remove(0);
+        if (duplicates.isEmpty()) duplicateKeys.get(fileName).remove(id);
+        index.put(id, next);
+        join(fileName, next, next);
+    }
+
+    private static Object joined(String fileName, int key) {
+        primaryIndex(fileName);
+        Object[] rows = joins.get(fileName);
+        return key >= 0 && key < rows.length ? rows[key] : null;
+    }
+
+    private static void join(String fileName, Object item, Object value) {
+        KeyDictionary dictionary = joinKeys.get(fileName);
+        if (dictionary == null) return;
+        int key = dictionary.key(keys.get(fileName).apply(item));
+        if (key < 0) return;
+        Object[] rows = joins.get(fileName);
+        if (key >= rows.length) joins.put(fileName, rows = Arrays.copyOf(rows, Math.max(key + 1, rows.length * 2)));
+        rows[key] = value;
+    }
+
+    // An ID may only be reused by the entity that already owns it (an update that keeps its ID)
+    private static void checkUnique(String fileName, Object old, Object item) {
+        Function<Object, String> key = keys.get(fileName);
+        if (key == null) return;
+        String id = key.apply(item);
+        if (old != null && Objects.equals(id, key.apply(old))) return;
+        if (primaryIndex(fileName).containsKey(id) || fileName.equals(RES_FILE) && archive().find(id) != null) {
+            throw new DuplicateIdException(keyNames.get(fileName) + " " + id + " already exists.");
+        }
+    }
+
+    private static void reindex(String fileName, Object old, Object item) {
+        Map<String, Object> index = keyIndex.get(fileName);
+        if (index != null) {
+            Function<Object, String> key = keys.get(fileName);
+            String id = item != null ? key.apply(item) : null;
+            boolean sameId = old != null && item != null && Objects.equals(id, key.apply(old));
+            if (sameId && index.get(id) != old) {
+                List<Object> duplicates = duplicateKeys.get(fileName).get(id); // a duplicate edited in place
+                int at = duplicates == null ? -1 : duplicates.indexOf(old);
+                if (at >= 0) duplicates.set(at, item);
+            } else {
+                if (old != null && !sameId) unindex(fileName, index, key.apply(old), old);
+                if (item != null) {
+                    index.put(id, item);
+                    join(fileName, item, item);
+                }
+            }
+        }
+        Analytics stats = analytics;
+        if (stats != null && fileName.equals(ROOM_FILE) && !stats.roomChanged((Room) old, (Room) item)) {
+            analytics = null;
+        }
+        if (!fileName.equals(RES_FILE)) return;
+        if (stats != null) stats.commit((Reservation) old, (Reservation) item);
+        AvailabilityIndex calendars = availability;
+        if (calendars != null) calendars.commit((Reservation) old, (Reservation) item);
+    }
+
+    private static CompletableFuture<Void> journal(List<?> list, String fileName, byte op, int index, Object old, Object item) {
+        if (repository(fileName) != null) {
+            Function<Object, String> key = keys.get(fileName);
+            String removed = old != null && (item == null || !key.apply(old).equals(key.apply(item))) ? key.apply(old) : null;
+            return enqueue(new PendingWrite(fileName, removed,
+                    item != null ? Collections.singletonList(item) : Collections.emptyList()));
+        }
+        try {
+            CompletableFuture<Void> done = enqueue(
+                    new PendingWrite(fileName, null, journalRecord(fileName, op, index, item), list == resStore));
+            if (journalSize.getOrDefault(fileName, 0) >= COMPACT_AFTER && compacting.add(fileName)) {
+                saveAsync(list, fileName); // the edit is safe once its record is; this only folds the journal
+            }
+            return done;
+        } catch (IOException e) {
+            System.err.println("Persistence Error: " + e.getMessage());
+            unwritten(fileName);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Record layout: op, index, payload length, payload, CRC32 of everything before it
+    private static byte[] journalRecord(String fileName, byte op, int index, Object item) throws IOException {
+        byte[] payload = item != null ? codec(fileName).encodeRecord(item) : new byte[0];
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(payload.length + 13);
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeByte(op);
+        out.writeInt(index);
+        out.writeInt(payload.length);
+        out.write(payload);
+        byte[] record = buf.toByteArray();
+        out.writeInt((int) crc(record, 0, record.length));
+        return buf.toByteArray();
+    }
+
+    private static CompletableFuture<Void> enqueue(PendingWrite write) {
+        if (write.fileName != null) pending.merge(write.fileName, 1, Integer::sum);
+        writes.add(write);
+        return write.done;
+    }
+
+    private static void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(writes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            writes.drainTo(batch);
+
+            Map<String, List<PendingWrite>> byFile = new LinkedHashMap<>();
+            for (PendingWrite w : batch) {
+                if (w.fileName == null) continue;
+                byFile.computeIfAbsent(w.fileName, f -> new ArrayList<>()).add(w);
+            }
+            for (List<PendingWrite> group : byFile.values()) writeGroup(group);
+            for (PendingWrite w : batch) w.done.complete(null); // flush markers, and anything already done
+            batch.clear();
+        }
+    }
+
+    // A burst for one file becomes one write: everything queued before the last full save is already
+    // contained in it, and the journal records after it go out in a single append
+    private static void writeGroup(List<PendingWrite> group) {
+        String fileName = group.get(0).fileName;
+        Integer failedEpoch = broken.get(fileName);
+        if (failedEpoch != null) {
+            int stale = 0;
+            while (stale < group.size() && group.get(stale).epoch <= failedEpoch) stale++;
+            if (stale > 0) {
+                IOException e = new IOException("an earlier write to " + fileName + " failed");
+                for (PendingWrite w : group.subList(0, stale)) w.done.completeExceptionally(e);
+                pending.merge(fileName, -stale, Integer::sum);
+                SwingUtilities.invokeLater(() -> revertFailed(fileName));
+                if (stale == group.size()) return;
+                group = group.subList(stale, group.size());
+            }
+        }
+        int lastSave = -1;
+        for (int i = 0; i < group.size(); i++) {
+            if (group.get(i).snapshot != null) lastSave = i;
+        }
+        Repository<String, Object> repo = repository(fileName);
+        try {
+            if (repo != null) {
+                writeRepository(repo, fileName, group, lastSave);
+                for (PendingWrite w : group) w.done.complete(null);
+                return;
+            }
+            boolean fromStore = true;
+            if (lastSave >= 0) {
+                writeSnapshot(group.get(lastSave).snapshot, fileName);
+                fromStore = group.get(lastSave).fromStore;
+            }
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            int count = 0;
+            for (int i = lastSave + 1; i < group.size(); i++) {
+                records.write(group.get(i).record);
+                count += group.get(i).records;
+                fromStore &= group.get(i).fromStore;
+            }
+            if (records.size() > 0) appendJournal(fileName, records.toByteArray(), count);
+
+            // The mapped mirror only stays valid if it is the list these edits were made on
+            if (fileName.equals(RES_FILE)) {
+                if (fromStore) resStoreWritten = true;
+                else resStoreStale = true;
+            }
+            for (PendingWrite w : group) w.done.complete(null);
+        } catch (Exception e) {
+            System.err.println("Persistence Error: " + e.getMessage());
+            if (fileName.equals(RES_FILE)) resStoreStale = true;
+            // A failed full save leaves the file as it was; lost journal records, or a Repository that
+            // took part of a group, leave it behind the list
+            if (repo != null || group.stream().anyMatch(w -> w.record != null)) {
+                broken.merge(fileName, group.get(group.size() - 1).epoch, Math::max);
+            }
+            for (PendingWrite w : group) w.done.completeExceptionally(e);
+        } finally {
+            diskStamp.put(fileName, stamp(fileName));
+            pending.merge(fileName, -group.size(), Integer::sum);
+            if (fileName.equals(RES_FILE)) SwingUtilities.invokeLater(DataManager::settleResStore);
+            if (broken.containsKey(fileName)) SwingUtilities.invokeLater(() -> revertFailed(fileName));
+        }
+    }
+
+    // A Repository takes a group by ID: a full save replaces its contents, and the edits after it are
+    // merged, so each ID is written once and the puts go out as one batch
+    private static void writeRepository(Repository<String, Object> repo, String fileName,
+                                        List<PendingWrite> group, int lastSave) {
+        Function<Object, String> key = keys.get(fileName);
+        Map<String, Object> stored = new LinkedHashMap<>();
+        Set<String> removed = new HashSet<>();
+        if (lastSave >= 0) {
+            for (Object item : (List<?>) group.get(lastSave).snapshot) stored.put(key.apply(item), item);
+            removed.addAll(repo.all().map(key).filter(id -> !stored.containsKey(id)).collect(Collectors.toList()));
+        }
+        for (PendingWrite w : group.subList(lastSave + 1, group.size())) {
+            if (w.removed != null) {
+                stored.remove(w.removed);
+                removed.add(w.removed);
+            }
+            for (Object item : w.stored) {
+                removed.remove(key.apply(item));
+                stored.put(key.apply(item), item);
+            }
+        }
+        for (String id : removed) repo.delete(id);
+        repo.putAll(stored.values());
+    }
+
+    // An edit made in memory whose record could not even be built is undone like a failed write
+    private static void unwritten(String fileName) {
+        broken.merge(fileName, epochs.getOrDefault(fileName, 0), Math::max);
+        SwingUtilities.invokeLater(() -> revertFailed(fileName));
+    }
+
+    // Runs on the EDT once the writer has drained a file whose write failed: the edits the file did
+    // not take are dropped by reading it back, the same way a change made by another process is
+    // picked up, so the tables, indexes, analytics and calendars all follow. Claims on the old
+    // calendars go with them; book() claims again on the rebuilt ones
+    private static void revertFailed(String fileName) {
+        if (!broken.containsKey(fileName) || pending.getOrDefault(fileName, 0) > 0) return;
+        epochs.merge(fileName, 1, Integer::sum);
+        broken.remove(fileName);
+        if (fileName.equals(RES_FILE) && resStore != null) {
+            resStore.clear(); // no longer stamped current, so getResStore rebuilds it from the file
+            getResStore();
+        } else if (cache.containsKey(fileName)) {
+            reload(fileName, cache.get(fileName), loadList(fileName));
+        }
+    }
+
+    // Crash-safe save: the new generation goes to a temp file that is forced to disk, the current one
+    // becomes the .bak, and the temp file is renamed into place. The live file is never truncated
+    private static void writeSnapshot(Object obj, String fileName) throws IOException {
+        Metrics.Span span = Metrics.start("save", fileName);
+        try {
+            byte[] payload = encode(obj, fileName);
+            ByteBuffer data = ByteBuffer.allocate(ENVELOPE + payload.length);
+            data.putInt(SNAPSHOT_MAGIC)
+                    .putLong(generation.merge(fileName, 1L, Long::sum))
+                    .putInt(payload.length)
+                    .putInt((int) crc(payload, 0, payload.length))
+                    .put(payload)
+                    .flip();
+
+            Path live = Paths.get(fileName), temp = Paths.get(fileName + TEMP_SUFFIX);
+            try (FileChannel ch = FileChannel.open(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (data.hasRemaining()) ch.write(data);
+                ch.force(true);
+            }
+            if (Files.exists(live)) atomicMove(live, Paths.get(fileName + BACKUP_SUFFIX));
+            atomicMove(temp, live);
+            syncDirectory(live);
+
+            snapshotCrc.put(fileName, crc(data.array(), 0, data.limit()));
+            journalSize.put(fileName, 0);
+            Files.deleteIfExists(Paths.get(fileName + JOURNAL_SUFFIX));
+            span.end(data.limit());
+        } catch (IOException | RuntimeException e) {
+            span.fail();
+            throw e;
+        } finally {
+            compacting.remove(fileName);
+        }
+    }
+
+    // Journal batches are forced to disk before their futures complete
+    private static void appendJournal(String fileName, byte[] records, int count) throws IOException {
+        Metrics.Span span = Metrics.start("journal", fileName);
+        long start = -1;
+        try (FileChannel ch = FileChannel.open(Paths.get(fileName + JOURNAL_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            start = ch.size();
+            if (start == 0) {
+                ByteBuffer header = ByteBuffer.allocate(12).putInt(JOURNAL_MAGIC).putLong(baseCrc(fileName));
+                header.flip();
+                ch.write(header);
+            }
+            ByteBuffer body = ByteBuffer.wrap(records);
+            while (body.hasRemaining()) ch.write(body);
+            ch.force(false);
+        } catch (IOException e) {
+            span.fail();
+            // A torn batch would hide every record appended after it from the next replay
+            if (start >= 0) {
+                try (FileChannel ch = FileChannel.open(Paths.get(fileName + JOURNAL_SUFFIX), StandardOpenOption.WRITE)) {
+                    ch.truncate(start);
+                } catch (IOException ignored) {
+                    // the replay still stops cleanly at the torn record
+                }
+            }
+            throw e;
+        }
+        span.end(records.length);
+        journalSize.merge(fileName, count, Integer::sum);
+    }
+
+    static void atomicMove(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Makes the renames themselves durable; not every platform lets a directory be opened for this
+    static void syncDirectory(Path file) {
+        try (FileChannel dir = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) { /* best effort */ }
+    }
+
+    // The Repository holding fileName, or null when it lives in its own files
+    @SuppressWarnings("unchecked")
+    private static Repository<String, Object> repository(String fileName) {
+        if (BACKEND.equals(Repositories.SNAPSHOT) || !codecs.containsKey(fileName)) return null;
+        return repositories.computeIfAbsent(fileName, f -> {
+            String name = f.substring(0, f.lastIndexOf('.'));
+            boolean fresh = !Repositories.exists(BACKEND, name);
+            Repository<String, ?> repo;
+            if (f.equals(ROOM_FILE)) repo = Repositories.open(BACKEND, name, EntityCodec.ROOM, Room::getRoomId, null);
+            else if (f.equals(CUST_FILE)) repo = Repositories.open(BACKEND, name, EntityCodec.CUSTOMER, Customer::getCustomerId, null);
+            else repo = Repositories.reservations(BACKEND, name);
+            Repository<String, Object> opened = (Repository<String, Object>) repo;
+            if (fresh && (new File(f).exists() || new File(f + JOURNAL_SUFFIX).exists())) {
+                Snapshot snapshot = readSnapshot(f);
+                ArrayList<Object> data = snapshot != null && snapshot.data instanceof ArrayList
+                        ? (ArrayList<Object>) snapshot.data : new ArrayList<>();
+                replayJournal(f, snapshot != null ? snapshot.crc : 0, data);
+                opened.putAll(data);
+            }
+            return opened;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> ArrayList<T> loadList(String fileName) {
+        flush();
+        Repository<String, Object> repo = repository(fileName);
+        if (repo != null) {
+            ArrayList<T> data = new ArrayList<>();
+            repo.all().forEach(item -> data.add((T) item));
+            return data;
+        }
+        Snapshot snapshot = readSnapshot(fileName);
+        ArrayList<T> data = new ArrayList<>();
+        long crc = 0;
+        boolean migrate = false;
+        if (snapshot != null && snapshot.data instanceof ArrayList) {
+            data = (ArrayList<T>) snapshot.data;
+            crc = snapshot.crc;
+            migrate = snapshot.legacy;
+        }
+
+        snapshotCrc.put(fileName, crc);
+        migrate |= hasLegacyJournal(fileName);
+        journalSize.put(fileName, replayJournal(fileName, crc, data));
+
+        // Migrate files from older versions to the checksummed binary format on first load; if that
+        // fails the old file stays and is migrated next time (the writer has reported why)
+        if (migrate) saveAsync(data, fileName);
+        return data;
+    }
+
+    // STREAMING READS
+    // Every reservation, archived months first. res.dat is read straight off the file one record at
+    // a time, with the journal's edits laid on top. Memory use depends on the journal (compacted every
+    // COMPACT_AFTER records) and one archived month, not on how long the history is. Close the stream
+    // when done. Files from older versions and damaged files fall back to a full load, which also
+    // repairs or migrates them
+    public static Stream<Reservation> streamReservations() {
+        return Stream.concat(archive().stream(), streamActive());
+    }
+
+    private static Stream<Reservation> streamActive() {
+        if (repository(RES_FILE) != null) return getRes().stream();
+        flush();
+        for (int attempt = 0; attempt < 3; attempt++) {
+            long before = stamp(RES_FILE);
+            try {
+                ReservationCursor cursor = ReservationCursor.open();
+                if (cursor == null) break;
+                if (stamp(RES_FILE) == before) {
+                    return StreamSupport.stream(Spliterators.spliterator(cursor, cursor.size,
+                            Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(cursor::close);
+                }
+                cursor.close(); // a save replaced the file while the journal was read; try again
+            } catch (IOException e) {
+                System.err.println("Persistence Error: " + e.getMessage());
+                break;
+            }
+        }
+        return getRes().stream();
+    }
+
+    private static final class ReservationCursor implements Iterator<Reservation>, Closeable {
+        private final FileChannel channel;
+        private final DataInputStream in;
+        private final int version;
+        private final Iterator<Patch.Piece> pieces;
+        final long size;
+
+        private Patch.Piece piece;
+        private int pieceRow;     // next snapshot row to hand out from the current run
+        private int snapshotRow;  // next row the decoder will read from the file
+
+        private ReservationCursor(FileChannel channel, DataInputStream in, int version, Patch patch) {
+            this.channel = channel;
+            this.in = in;
+            this.version = version;
+            this.pieces = patch.pieces.iterator();
+            this.size = patch.size();
+        }
+
+        // Null when the file is not in the current checksummed format (or fails its checksum)
+        static ReservationCursor open() throws IOException {
+            Path path = Paths.get(RES_FILE);
+            if (!Files.exists(path)) {
+                Patch patch = new Patch(0);
+                replayJournal(RES_FILE, 0, patch, false);
+                return new ReservationCursor(null, null, EntityCodec.VERSION, patch);
+            }
+            FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                // First pass: the payload checksum from the envelope, and the whole-file checksum the
+                // journal is tied to
+                ByteBuffer head = ByteBuffer.allocate(ENVELOPE);
+                while (head.hasRemaining() && ch.read(head) > 0) { }
+                if (head.hasRemaining() || head.getInt(0) != SNAPSHOT_MAGIC
+                        || (head.getInt(12) & 0xffffffffL) != ch.size() - ENVELOPE) {
+                    ch.close();
+                    return null;
+                }
+                CRC32 whole = new CRC32(), payload = new CRC32();
+                whole.update(head.array());
+                ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+                while (ch.read(buf) > 0) {
+                    buf.flip();
+                    whole.update(buf);
+                    buf.position(0);
+                    payload.update(buf);
+                    buf.clear();
+                }
+                if ((int) payload.getValue() != head.getInt(16)) {
+                    ch.close();
+                    return null;
+                }
+
+                // Second pass: decode as the stream is consumed
+                ch.position(ENVELOPE);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+                int[] header;
+                try {
+                    header = EntityCodec.readHeader(in);
+                } catch (IOException e) {
+                    ch.close(); // serialized list inside an envelope
+                    return null;
+                }
+                Patch patch = new Patch(header[1]);
+                replayJournal(RES_FILE, whole.getValue(), patch, false);
+                return new ReservationCursor(ch, in, header[0], patch);
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (piece == null || (piece.row == null && pieceRow >= piece.to)) {
+                if (!pieces.hasNext()) return false;
+                piece = pieces.next();
+                pieceRow = piece.from;
+            }
+            return true;
+        }
+
+        @Override
+        public Reservation next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            if (piece.row != null) {
+                Reservation row = piece.row;
+                piece = null;
+                return row;
+            }
+            try {
+                while (snapshotRow < pieceRow) { // rows the journal deleted or replaced
+                    EntityCodec.RESERVATION.read(in, version);
+                    snapshotRow++;
+                }
+                snapshotRow++;
+                pieceRow++;
+                return EntityCodec.RESERVATION.read(in, version);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // The reservation list as runs of untouched snapshot rows plus the rows the journal inserted or
+    // replaced. Only those rows are held in memory; replayJournal applies its records here instead
+    // of to a list, and the cursor reads the snapshot rows off the file
+    private static final class Patch implements JournalTarget<Reservation> {
+        static final class Piece {
+            final int from, to;      // snapshot rows [from, to) ...
+            final Reservation row;   // ... or a single journaled row
+
+            Piece(int from, int to, Reservation row) {
+                this.from = from;
+                this.to = to;
+                this.row = row;
+            }
+
+            int size() { return row != null ? 1 : to - from; }
+        }
+
+        final List<Piece> pieces = new ArrayList<>();
+        private int size;
+
+        Patch(int snapshotRows) {
+            if (snapshotRows > 0) pieces.add(new Piece(0, snapshotRows, null));
+            size = snapshotRows;
+        }
+
+        @Override
+        public int size() { return size; }
+
+        @Override
+        public void insertAt(int index, Reservation r) {
+            Objects.checkIndex(index, size + 1);
+            pieces.add(split(index), new Piece(0, 0, r));
+            size++;
+        }
+
+        @Override
+        public void replaceAt(int index, Reservation r) {
+            Objects.checkIndex(index, size);
+            int p = split(index);
+            split(index + 1);
+            pieces.set(p, new Piece(0, 0, r));
+        }
+
+        @Override
+        public void removeAt(int index) {
+            Objects.checkIndex(index, size);
+            int p = split(index);
+            split(index + 1);
+            pieces.remove(p);
+            size--;
+        }
+
+        // Splits the piece holding list position pos so that a piece starts there; returns its index
+        private int split(int pos) {
+            int start = 0;
+            for (int i = 0; i < pieces.size(); i++) {
+                Piece piece = pieces.get(i);
+                if (pos == start) return i;
+                if (pos < start + piece.size()) {
+                    int cut = piece.from + (pos - start);
+                    pieces.set(i, new Piece(piece.from, cut, null));
+                    pieces.add(i + 1, new Piece(cut, piece.to, null));
+                    return i + 1;
+                }
+                start += piece.size();
+            }
+            return pieces.size();
+        }
+    }
+
+    private static final class Snapshot {
+        final Object data;
+        final long crc;
+        final boolean legacy;
+
+        Snapshot(Object data, long crc, boolean legacy) {
+            this.data = data;
+            this.crc = crc;
+            this.legacy = legacy;
+        }
+    }
+
+    // Reads the live snapshot, falling back to the previous generation when it is missing or damaged.
+    // A damaged file is moved aside instead of being left for the next save to overwrite
+    private static Snapshot readSnapshot(String fileName) {
+        for (String candidate : new String[]{fileName, fileName + BACKUP_SUFFIX}) {
+            Path path = Paths.get(candidate);
+            if (!Files.exists(path)) continue;
+            Metrics.Span span = Metrics.start("load", fileName);
+            try {
+                byte[] bytes = Files.readAllBytes(path);
+                int off = payloadOffset(bytes, fileName);
+                Object data = decode(bytes, off, bytes.length - off, fileName);
+                span.end(bytes.length);
+                return new Snapshot(data, crc(bytes, 0, bytes.length), off == 0);
+            } catch (Exception e) {
+                span.fail();
+                System.err.println("Persistence Error: " + candidate + " is damaged (" + e.getMessage() + ")");
+                try {
+                    atomicMove(path, Paths.get(candidate + ".corrupt-" + System.currentTimeMillis()));
+                } catch (IOException ignored) {}
+            }
+        }
+        return null;
+    }
+
+    // Checks the envelope and returns where the payload starts (0 for files written before envelopes)
+    private static int payloadOffset(byte[] bytes, String fileName) throws IOException {
+        if (bytes.length < ENVELOPE || ByteBuffer.wrap(bytes).getInt() != SNAPSHOT_MAGIC) return 0;
+        ByteBuffer header = ByteBuffer.wrap(bytes, 4, ENVELOPE - 4);
+        long gen = header.getLong();
+        int len = header.getInt();
+        int crc = header.getInt();
+        if (len != bytes.length - ENVELOPE || crc != (int) crc(bytes, ENVELOPE, len)) {
+            throw new IOException("checksum mismatch");
+        }
+        generation.merge(fileName, gen, Math::max);
+        return ENVELOPE;
+    }
+
+    // The rows a journal replay edits: a loaded list, or the streaming reader's Patch
+    private interface JournalTarget<T> {
+        int size();
+        void insertAt(int index, T row);
+        void replaceAt(int index, T row);
+        void removeAt(int index);
+    }
+
+    // Applies journal records on top of the snapshot; a torn tail from a crash is cut off
+    private static <T> int replayJournal(String fileName, long snapshotCrc, List<T> list) {
+        return replayJournal(fileName, snapshotCrc, new JournalTarget<T>() {
+            public int size() { return list.size(); }
+            public void insertAt(int index, T row) { list.add(index, row); }
+            public void replaceAt(int index, T row) { list.set(index, row); }
+            public void removeAt(int index) { list.remove(index); }
+        }, true);
+    }
+
+    // Readers outside the writer's control pass repair=false: the journal may be growing under them,
+    // so a stale file or a torn tail is skipped rather than deleted or truncated
+    @SuppressWarnings("unchecked")
+    private static <T> int replayJournal(String fileName, long snapshotCrc, JournalTarget<T> list, boolean repair) {
+        Path path = Paths.get(fileName + JOURNAL_SUFFIX);
+        int applied = 0;
+        try {
+            if (!Files.exists(path)) return 0;
+            byte[] bytes = Files.readAllBytes(path);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+            // A journal written against an older snapshot is already folded into the current one
+            int magic = bytes.length < 12 ? 0 : in.readInt();
+            boolean legacy = magic == LEGACY_JOURNAL_MAGIC;
+            if ((magic != JOURNAL_MAGIC && !legacy) || in.readLong() != snapshotCrc) {
+                if (repair) Files.delete(path);
+                return 0;
+            }
+
+            int good = 12;
+            while (bytes.length - good >= 13) {
+                byte op = in.readByte();
+                int index = in.readInt();
+                int len = in.readInt();
+                if (len < 0 || len > bytes.length - good - 13) break;
+                in.skipBytes(len);
+                int stored = in.readInt();
+                if (stored != (int) crc(bytes, good, 9 + len)) break;
+
+                if (op == OP_INSERT && index >= 0 && index <= list.size()) {
+                    list.insertAt(index, (T) decodeRecord(bytes, good + 9, len, fileName, legacy));
+                } else if (op == OP_UPDATE && index >= 0 && index < list.size()) {
+                    list.replaceAt(index, (T) decodeRecord(bytes, good + 9, len, fileName, legacy));
+                } else if (op == OP_DELETE && index >= 0 && index < list.size()) {
+                    list.removeAt(index);
+                } else {
+                    break;
+                }
+                good += 13 + len;
+                applied++;
+            }
+
+            if (repair && good < bytes.length) {
+                try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    ch.truncate(good);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Persistence Error: " + e.getMessage());
+        }
+        return applied;
+    }
+
+    private static boolean hasLegacyJournal(String fileName) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(fileName + JOURNAL_SUFFIX))) {
+            return in.readInt() == LEGACY_JOURNAL_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static long baseCrc(String fileName) {
+        return snapshotCrc.computeIfAbsent(fileName, f -> {
+            try {
+                byte[] bytes = Files.readAllBytes(Paths.get(f));
+                return crc(bytes, 0, bytes.length);
+            } catch (IOException e) {
+                return 0L;
+            }
+        });
+    }
+
+    // Archived month files hold reservations like res.dat
+    private static EntityCodec<?> codec(String fileName) {
+        return ReservationArchive.isMonthFile(fileName) ? EntityCodec.RESERVATION : codecs.get(fileName);
+    }
+
+    private static byte[] encode(Object obj, String fileName) throws IOException {
+        EntityCodec<?> codec = codec(fileName);
+        return codec != null && obj instanceof List ? codec.encodeList((List<?>) obj) : serialize(obj);
+    }
+
+    private static Object decode(byte[] bytes, int off, int len, String fileName) throws IOException, ClassNotFoundException {
+        EntityCodec<?> codec = codec(fileName);
+        if (codec != null && EntityCodec.isEncoded(bytes, off, len)) return codec.decodeList(bytes, off, len);
+        return deserialize(bytes, off, len);
+    }
+
+    private static Object decodeRecord(byte[] bytes, int off, int len, String fileName, boolean legacy)
+            throws IOException, ClassNotFoundException {
+        return legacy ? deserialize(bytes, off, len) : codec(fileName).decodeRecord(bytes, off, len);
+    }
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(buf)) {
+            oos.writeObject(obj);
+        }
+        return buf.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes, int off, int len) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes, off, len))) {
+            return ois.readObject();
+        }
+    }
+
+    private static long crc(byte[] bytes, int off, int len) {
+        CRC32 c = new CRC32();
+        c.update(bytes, off, len);
+        return c.getValue();
+    }
+}
+
+// Thrown when an insert or update would give two entities the same ID
+class DuplicateIdException extends InvalidRequestException {
+    private static final long serialVersionUID = 1L;
+
+    public DuplicateIdException(String message) {
+        super(message);
+    }
+}
+
+// MEMORY-MAPPED RESERVATION STORE
+// Fixed-width mirror of res.dat: row i lives at a known offset, so the table reads rows straight
+// off the mapping and an edit rewrites a single slot. String IDs are interned into a side
+// dictionary file and slots only hold their dictionary numbers. Room and guest numbers are
+// translated to KeyDictionary keys once per dictionary entry, so reading a row decodes only its ID.
+class MappedReservationStore extends AbstractList<Reservation> implements RandomAccess {
+    private static final int MAGIC = 0x48524d32; // "HRM2": guests as bare customer IDs
+    private static final int HEADER = 64;
+    private static final int SLOT = 24; // resId, roomId, custId, checkIn, checkOut, total
+
+    // Header fields: row count, dictionary size and the res.dat state the slots were built from
+    private static final int H_COUNT = 4, H_DICT = 8, H_RECORDS = 12;
+    private static final int H_CRC = 16, H_MTIME = 24, H_LENGTH = 32, H_JOURNAL = 40;
+
+    private final FileChannel slotChannel, dictChannel;
+    private volatile MappedByteBuffer slots;
+    private MappedByteBuffer dict;
+    private int count;
+
+    private int[] dictOffsets = new int[256];
+    private int dictCount, dictEnd;
+    private Map<String, Integer> dictLookup; // only built once something is written
+    private int[] roomKeys = new int[256], guestKeys = new int[256]; // KeyDictionary key + 1, 0 until first read
+
+    MappedReservationStore(String slotFile, String dictFile) throws IOException {
+        slotChannel = FileChannel.open(Paths.get(slotFile),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        dictChannel = FileChannel.open(Paths.get(dictFile),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        slots = slotChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(slotChannel.size(), HEADER + SLOT * 256L));
+        dict = dictChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(dictChannel.size(), 4096));
+
+        count = slots.getInt(H_COUNT);
+        if (slots.getInt(0) != MAGIC || count < 0 || HEADER + (long) count * SLOT > slots.capacity() || !loadDictionary()) {
+            clear();
+        }
+    }
+
+    // Walks the dictionary once to find where each string starts; the strings themselves stay on disk
+    private boolean loadDictionary() {
+        int entries = slots.getInt(H_DICT);
+        int pos = 0;
+        for (int i = 0; i < entries; i++) {
+            if (pos + 4 > dict.capacity()) return false;
+            int len = dict.getInt(pos);
+            if (len < 0 || pos + 4 + len > dict.capacity()) return false;
+            addOffset(pos);
+            pos += 4 + len;
+        }
+        dictEnd = pos;
+        return true;
+    }
+
+    // True when the slots still describe the given res.dat snapshot and journal
+    boolean isCurrent(File snapshot, File journal) {
+        return slots.getLong(H_MTIME) == snapshot.lastModified()
+                && slots.getLong(H_LENGTH) == snapshot.length()
+                && slots.getLong(H_JOURNAL) == journal.length()
+                && slots.getLong(H_LENGTH) + slots.getLong(H_JOURNAL) > 0;
+    }
+
+    void markCurrent(long snapshotCrc, int journalRecords, File snapshot, File journal) {
+        slots.putLong(H_CRC, snapshotCrc);
+        slots.putInt(H_RECORDS, journalRecords);
+        slots.putLong(H_MTIME, snapshot.lastModified());
+        slots.putLong(H_LENGTH, snapshot.length());
+        slots.putLong(H_JOURNAL, journal.length());
+    }
+
+    long getSnapshotCrc() { return slots.getLong(H_CRC); }
+    int getJournalRecords() { return slots.getInt(H_RECORDS); }
+
+    // Replaces every slot and the dictionary with the given reservations
+    void rebuild(List<Reservation> all) {
+        clear();
+        ensureSlots(all.size());
+        for (Reservation r : all) writeSlot(count++, r);
+        slots.putInt(H_COUNT, count);
+    }
+
+    @Override
+    public void clear() {
+        slots.putLong(H_MTIME, 0);
+        slots.putLong(H_LENGTH, 0);
+        slots.putLong(H_JOURNAL, 0);
+        slots.putInt(0, MAGIC);
+        slots.putInt(H_COUNT, count = 0);
+        slots.putInt(H_DICT, dictCount = 0);
+        dictEnd = 0;
+        dictLookup = new HashMap<>();
+        roomKeys = new int[256];
+        guestKeys = new int[256];
+        modCount++;
+    }
+
+    @Override
+    public int size() { return count; }
+
+    @Override
+    public Reservation get(int row) {
+        Objects.checkIndex(row, count);
+        int p = HEADER + row * SLOT;
+        return new Reservation(
+                string(slots.getInt(p)), roomKey(slots.getInt(p + 4)), guestKey(slots.getInt(p + 8)),
+                EntityCodec.fromEpochDay(slots.getInt(p + 12)), EntityCodec.fromEpochDay(slots.getInt(p + 16)),
+                slots.getInt(p + 20));
+    }
+
+    @Override
+    public Reservation set(int row, Reservation r) {
+        Reservation old = get(row);
+        writeSlot(row, r);
+        return old;
+    }
+
+    @Override
+    public void add(int row, Reservation r) {
+        Objects.checkIndex(row, count + 1);
+        ensureSlots(count + 1);
+        moveSlots(row, row + 1, count - row);
+        writeSlot(row, r);
+        slots.putInt(H_COUNT, ++count);
+        modCount++;
+    }
+
+    @Override
+    public Reservation remove(int row) {
+        Reservation old = get(row);
+        moveSlots(row + 1, row, count - row - 1);
+        slots.putInt(H_COUNT, --count);
+        modCount++;
+        return old;
+    }
+
+    // Row holding the given reservation ID, found by comparing dictionary numbers instead of decoding rows
+    int indexOfResId(String resId) {
+        Integer id = resId == null ? null : lookup().get(resId);
+        if (id == null) return -1;
+        for (int row = 0, p = HEADER; row < count; row++, p += SLOT) {
+            if (slots.getInt(p) == id) return row;
+        }
+        return -1;
+    }
+
+    private void writeSlot(int row, Reservation r) {
+        int p = HEADER + row * SLOT;
+        slots.putInt(p, intern(r.getResId()));
+        slots.putInt(p + 4, intern(r.getRoomId()));
+        slots.putInt(p + 8, intern(r.getCustId()));
+        slots.putInt(p + 12, EntityCodec.toEpochDay(r.getCheckIn()));
+        slots.putInt(p + 16, EntityCodec.toEpochDay(r.getCheckOut()));
+        slots.putInt(p + 20, r.getTotal());
+    }
+
+    // Shifts a run of slots in 64 KB chunks, copying from the far end when moving right
+    private void moveSlots(int from, int to, int rows) {
+        byte[] chunk = new byte[Math.min(rows * SLOT, 64 * 1024)];
+        int bytes = rows * SLOT;
+        int src = HEADER + from * SLOT, dst = HEADER + to * SLOT;
+        for (int done = 0; done < bytes; ) {
+            int n = Math.min(chunk.length, bytes - done);
+            int off = to > from ? bytes - done - n : done;
+            slots.get(src + off, chunk, 0, n);
+            slots.put(dst + off, chunk, 0, n);
+            done += n;
+        }
+    }
+
+    private void ensureSlots(int rows) {
+        long needed = HEADER + (long) rows * SLOT;
+        if (needed <= slots.capacity()) return;
+        try {
+            slots = slotChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(needed, slots.capacity() * 3L / 2));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String string(int id) {
+        if (id < 0) return null;
+        int pos = dictOffsets[id];
+        byte[] utf8 = new byte[dict.getInt(pos)];
+        dict.get(pos + 4, utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private int roomKey(int id) {
+        if (id < 0) return -1;
+        if (roomKeys[id] == 0) roomKeys[id] = KeyDictionary.ROOMS.key(string(id)) + 1;
+        return roomKeys[id] - 1;
+    }
+
+    private int guestKey(int id) {
+        if (id < 0) return -1;
+        if (guestKeys[id] == 0) guestKeys[id] = KeyDictionary.CUSTOMERS.key(string(id)) + 1;
+        return guestKeys[id] - 1;
+    }
+
+    private int intern(String s) {
+        if (s == null) return -1;
+        Integer id = lookup().get(s);
+        if (id != null) return id;
+
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        if (dictEnd + 4 + utf8.length > dict.capacity()) {
+            try {
+                dict = dictChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        Math.max(dictEnd + 4 + utf8.length, dict.capacity() * 3L / 2));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        dict.putInt(dictEnd, utf8.length);
+        dict.put(dictEnd + 4, utf8);
+        addOffset(dictEnd);
+        dictEnd += 4 + utf8.length;
+        dictLookup.put(s, dictCount - 1);
+        slots.putInt(H_DICT, dictCount);
+        return dictCount - 1;
+    }
+
+    private Map<String, Integer> lookup() {
+        if (dictLookup == null) {
+            dictLookup = new HashMap<>(dictCount * 2);
+            for (int i = 0; i < dictCount; i++) dictLookup.put(string(i), i);
+        }
+        return dictLookup;
+    }
+
+    private void addOffset(int pos) {
+        if (dictCount == dictOffsets.length) dictOffsets = Arrays.copyOf(dictOffsets, dictCount * 2);
+        if (dictCount == roomKeys.length) {
+            roomKeys = Arrays.copyOf(roomKeys, dictCount * 2);
+            guestKeys = Arrays.copyOf(guestKeys, dictCount * 2);
+        }
+        dictOffsets[dictCount++] = pos;
+    }
+}
+
+// RESERVATION ARCHIVE
+// Stays that ended before the current month move out of res.dat into one file per check-in month
+// (res-2026-09.dat, same format as res.dat), listed in res.manifest with their row counts and a
+// Bloom filter of their IDs. res.dat then holds the current month and the future only, so its loads
+// and saves stay the same size however old the hotel gets. A month is read when something asks for
+// its rows (the table scrolling to them, an ID lookup, a report) and only the last few read are
+// kept. Used from the event dispatch thread, except stream(), which any thread may call.
+class ReservationArchive {
+    static final String MANIFEST = "res.manifest";
+    private static final int MAGIC = 0x48524132; // "HRA2": with the archived room-nights
+    private static final int OLD_MAGIC = 0x48524d31; // "HRM1": manifests from before the room-nights
+    private static final int CACHED_MONTHS = 4;
+    private static final int BLOOM_BITS_PER_ROW = 10, BLOOM_PROBES = 5;
+    private static final Pattern MONTH_FILE = Pattern.compile("res-(\\d{4})-(\\d{2})\\.dat");
+
+    private static final class Month {
+        final int key;   // year * 12 + month - 1
+        int rows;
+        long[] bloom;
+
+        Month(int key, int rows, long[] bloom) {
+            this.key = key;
+            this.rows = rows;
+            this.bloom = bloom;
+        }
+    }
+
+    private final TreeMap<Integer, Month> months = new TreeMap<>();
+    private Month[] order = new Month[0];
+    private int[] starts = new int[0];                      // first row of each month, in order
+    private volatile List<Integer> keys = Collections.emptyList();
+    private int rows;
+    private int activeFrom;                                 // epoch day res.dat starts at
+    private Analytics.RoomNights roomNights = new Analytics.RoomNights();
+
+    private final Map<Integer, ArrayList<Reservation>> loaded =
+            new LinkedHashMap<Integer, ArrayList<Reservation>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, ArrayList<Reservation>> eldest) {
+                    return size() > CACHED_MONTHS;
+                }
+            };
+
+    static ReservationArchive open() {
+        ReservationArchive archive = new ReservationArchive();
+        if (!archive.readManifest()) archive.scan();
+        archive.publish();
+        return archive;
+    }
+
+    static boolean isMonthFile(String fileName) {
+        return MONTH_FILE.matcher(fileName).matches();
+    }
+
+    static int monthOf(Date day) {
+        LocalDate date = LocalDate.ofEpochDay(EntityCodec.toEpochDay(day));
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    int size() { return rows; }
+    int activeFrom() { return activeFrom; }
+    Analytics.RoomNights roomNights() { return roomNights; }
+
+    Reservation get(int row) {
+        int m = monthAt(row);
+        return load(order[m].key).get(row - starts[m]);
+    }
+
+    Reservation find(String resId) {
+        int row = rowOf(resId);
+        return row < 0 ? null : get(row);
+    }
+
+    // Only months whose Bloom filter may hold the ID are read
+    int rowOf(String resId) {
+        for (int m = 0; m < order.length; m++) {
+            if (!mightContain(order[m].bloom, resId)) continue;
+            List<Reservation> list = load(order[m].key);
+            for (int i = 0; i < list.size(); i++) {
+                if (Objects.equals(list.get(i).getResId(), resId)) return starts[m] + i;
+            }
+        }
+        return -1;
+    }
+
+    // Edits rewrite the month file they touch on a copy, and only take effect once it is written;
+    // DataManager.save throws UncheckedIOException otherwise. A stay whose check-in moved to another
+    // month goes to that month's file, which changes its row
+    Reservation set(int row, Reservation item) {
+        int m = monthAt(row), key = order[m].key;
+        int target = item.getCheckIn() != null ? monthOf(item.getCheckIn()) : key;
+        ArrayList<Reservation> list = new ArrayList<>(load(key));
+        Reservation old;
+        if (target == key) {
+            old = list.set(row - starts[m], item);
+            DataManager.save(list, fileName(key));
+            add(order[m].bloom, item.getResId());
+        } else {
+            old = list.remove(row - starts[m]);
+            ArrayList<Reservation> before = months.containsKey(target) ? load(target) : null;
+            ArrayList<Reservation> moved = before != null ? new ArrayList<>(before) : new ArrayList<>();
+            moved.add(item);
+            DataManager.save(moved, fileName(target));
+            try {
+                DataManager.save(list, fileName(key));
+            } catch (UncheckedIOException e) {
+                restore(target, before);
+                throw e;
+            }
+            order[m].rows--;
+            Month into = months.get(target);
+            if (into == null) {
+                months.put(target, new Month(target, moved.size(), bloom(moved)));
+            } else {
+                into.rows++;
+                add(into.bloom, item.getResId());
+            }
+            loaded.put(target, moved);
+            publish();
+        }
+        loaded.put(key, list);
+        roomNights.add(old, -1);
+        roomNights.add(item, 1);
+        writeManifest();
+        return old;
+    }
+
+    Reservation remove(int row) {
+        int m = monthAt(row);
+        ArrayList<Reservation> list = new ArrayList<>(load(order[m].key));
+        Reservation old = list.remove(row - starts[m]);
+        DataManager.save(list, fileName(order[m].key));
+        loaded.put(order[m].key, list);
+        order[m].rows--;
+        roomNights.add(old, -1);
+        publish();
+        writeManifest();
+        return old;
+    }
+
+    // Takes back the first half of a move whose second write failed
+    private static void restore(int key, ArrayList<Reservation> before) {
+        try {
+            if (before != null) DataManager.save(before, fileName(key));
+            else Files.deleteIfExists(Paths.get(fileName(key)));
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Persistence Error: " + e.getMessage());
+        }
+    }
+
+    // Adds stays to their months' files. IDs a month already holds are skipped, so a roll-over that
+    // stopped before res.dat was rewritten can simply run again
+    void append(Map<Integer, List<Reservation>> byMonth) {
+        byMonth.forEach((key, stays) -> {
+            ArrayList<Reservation> list = months.containsKey(key) ? load(key) : new ArrayList<>();
+            Set<String> ids = new HashSet<>();
+            for (Reservation r : list) ids.add(r.getResId());
+            for (Reservation r : stays) {
+                if (!ids.add(r.getResId())) continue;
+                list.add(r);
+                roomNights.add(r, 1);
+            }
+            DataManager.save(list, fileName(key));
+            loaded.put(key, list);
+            months.put(key, new Month(key, list.size(), bloom(list)));
+        });
+        publish();
+        writeManifest();
+    }
+
+    void setActiveFrom(int epochDay) {
+        activeFrom = epochDay;
+        writeManifest();
+    }
+
+    // Every archived stay, oldest month first, one month file in memory at a time
+    Stream<Reservation> stream() {
+        return keys.stream().flatMap(key -> read(key).stream());
+    }
+
+    private int monthAt(int row) {
+        Objects.checkIndex(row, rows);
+        int m = Arrays.binarySearch(starts, row);
+        if (m < 0) return -m - 2;
+        while (m + 1 < starts.length && starts[m + 1] == row) m++; // skip emptied months
+        return m;
+    }
+
+    private ArrayList<Reservation> load(int key) {
+        ArrayList<Reservation> list = loaded.get(key);
+        if (list == null) {
+            list = read(key);
+            loaded.put(key, list);
+        }
+        return list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayList<Reservation> read(int key) {
+        Object data = DataManager.load(fileName(key));
+        return data instanceof ArrayList ? (ArrayList<Reservation>) data : new ArrayList<>();
+    }
+
+    private void publish() {
+        order = months.values().toArray(new Month[0]);
+        starts = new int[order.length];
+        rows = 0;
+        for (int m = 0; m < order.length; m++) {
+            starts[m] = rows;
+            rows += order[m].rows;
+        }
+        keys = new ArrayList<>(months.keySet());
+    }
+
+    private static String fileName(int key) {
+        return String.format(Locale.ROOT, "res-%04d-%02d.dat", key / 12, key % 12 + 1);
+    }
+
+    // MANIFEST: magic, activeFrom, month count, then per month its key, rows and Bloom filter words,
+    // then the archived room-nights. A manifest from before the room-nights is rebuilt once
+    private boolean readManifest() {
+        File file = new File(MANIFEST);
+        if (!file.exists()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int magic = in.readInt();
+            if (magic == OLD_MAGIC) return false;
+            if (magic != MAGIC) throw new IOException("not a manifest");
+            activeFrom = in.readInt();
+            for (int n = in.readInt(); n > 0; n--) {
+                int key = in.readInt(), count = in.readInt();
+                long[] bloom = new long[in.readInt()];
+                for (int i = 0; i < bloom.length; i++) bloom[i] = in.readLong();
+                months.put(key, new Month(key, count, bloom));
+            }
+            roomNights = Analytics.RoomNights.read(in);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Persistence Error: " + MANIFEST + " is damaged (" + e.getMessage() + "), rebuilding it");
+            months.clear();
+            activeFrom = 0;
+            roomNights = new Analytics.RoomNights();
+            return false;
+        }
+    }
+
+    // No usable manifest: rebuild it from the month files. Leaving activeFrom at 0 makes the next
+    // roll-over check res.dat again
+    private void scan() {
+        File[] files = new File(".").listFiles((dir, name) -> isMonthFile(name));
+        if (files == null || files.length == 0) return;
+        for (File file : files) {
+            Matcher m = MONTH_FILE.matcher(file.getName());
+            if (!m.matches()) continue;
+            int key = Integer.parseInt(m.group(1)) * 12 + Integer.parseInt(m.group(2)) - 1;
+            ArrayList<Reservation> list = read(key);
+            months.put(key, new Month(key, list.size(), bloom(list)));
+            for (Reservation r : list) roomNights.add(r, 1);
+        }
+        writeManifest();
+    }
+
+    private void writeManifest() {
+        Path live = Paths.get(MANIFEST), temp = Paths.get(MANIFEST + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                out.writeInt(MAGIC);
+                out.writeInt(activeFrom);
+                out.writeInt(months.size());
+                for (Month month : months.values()) {
+                    out.writeInt(month.key);
+                    out.writeInt(month.rows);
+                    out.writeInt(month.bloom.length);
+                    for (long word : month.bloom) out.writeLong(word);
+                }
+                roomNights.write(out);
+                out.flush();
+                file.getFD().sync();
+            }
+            try {
+                Files.move(temp, live, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, live, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("Persistence Error: " + e.getMessage());
+        }
+    }
+
+    // BLOOM FILTER: no false negatives, about 1% false positives at 10 bits per row
+    private static long[] bloom(List<Reservation> list) {
+        long[] bits = new long[Math.max(1, (list.size() * BLOOM_BITS_PER_ROW + 63) / 64)];
+        for (Reservation r : list) add(bits, r.getResId());
+        return bits;
+    }
+
+    static void add(long[] bits, String id) {
+        int h1 = Objects.hashCode(id), h2 = Integer.rotateLeft(h1 * 0x9E3779B9, 16) | 1;
+        for (int i = 0; i < BLOOM_PROBES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bits.length * 64);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    static boolean mightContain(long[] bits, String id) {
+        int h1 = Objects.hashCode(id), h2 = Integer.rotateLeft(h1 * 0x9E3779B9, 16) | 1;
+        for (int i = 0; i < BLOOM_PROBES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bits.length * 64);
+            if ((bits[bit >>> 6] & 1L << bit) == 0) return false;
+        }
+        return true;
+    }
+}
+
+// STORAGE BACKENDS
+// Repository is the storage SPI for one keyed entity set: point lookups, scans over a key range or
+// over an optional secondary index, and single-record writes that are on disk when the call
+// returns. For reservations the index is the check-in day, so a date range is one index scan.
+// The backend comes from "backend" in storage.properties, or -Dhotel.storage=... to override it.
+// With any backend but "snapshot", DataManager keeps rooms, customers and reservations in
+// repositories named rooms, cust and res; with "snapshot" they stay in its own .dat files:
+//
+//   backend=snapshot     SnapshotRepository: the whole set in memory, in <name>.snap plus a log of writes
+//   backend=lsm          LsmRepository: a log-structured store in <name>.lsm/, recent writes in memory
+//
+// Scans run in key order; a null bound leaves that end open. I/O failures surface as UncheckedIOException.
+interface Repository<K, V> extends Closeable {
+    V get(K key);
+
+    // Inserts the record, or replaces the one with the same key
+    void put(V value);
+
+    // Same as put for each value, but written to disk as one batch
+    default void putAll(Collection<? extends V> values) {
+        for (V value : values) put(value);
+    }
+
+    boolean delete(K key);
+
+    Stream<V> range(K from, K to);
+
+    // Records whose index key is in from (inclusive) .. to (exclusive); empty without an index
+    Stream<V> indexRange(String from, String to);
+
+    default Stream<V> all() {
+        return range(null, null);
+    }
+
+    @Override
+    void close();
+}
+
+final class Repositories {
+    static final String CONFIG = "storage.properties";
+    static final String SNAPSHOT = "snapshot", LSM = "lsm";
+
+    private Repositories() {}
+
+    static String backend() {
+        String backend = System.getProperty("hotel.storage");
+        if (backend == null) {
+            Properties config = new Properties();
+            File file = new File(CONFIG);
+            if (file.exists()) {
+                try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                    config.load(in);
+                } catch (IOException e) {
+                    System.err.println("Storage Error: " + e.getMessage());
+                }
+            }
+            backend = config.getProperty("backend", SNAPSHOT);
+        }
+        return backend.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static <V> Repository<String, V> open(String backend, String name, EntityCodec<V> codec,
+                                          Function<V, String> key, Function<V, String> index) {
+        switch (backend) {
+            case SNAPSHOT: return new SnapshotRepository<>(Paths.get(name + ".snap"), codec, key, index);
+            case LSM: return new LsmRepository<>(Paths.get(name + ".lsm"), codec, key, index);
+            default: throw new IllegalArgumentException("Unknown storage backend " + backend);
+        }
+    }
+
+    // Whether open() would find a store, rather than start an empty one
+    static boolean exists(String backend, String name) {
+        switch (backend) {
+            case SNAPSHOT: return Files.exists(Paths.get(name + ".snap"));
+            case LSM: return Files.exists(Paths.get(name + ".lsm"));
+            default: throw new IllegalArgumentException("Unknown storage backend " + backend);
+        }
+    }
+
+    // Reservations by ID, indexed by check-in day
+    static Repository<String, Reservation> reservations(String backend, String name) {
+        return open(backend, name, EntityCodec.RESERVATION, Reservation::getResId, r -> day(r.getCheckIn()));
+    }
+
+    // Index key of a day: fixed width, so string order is date order. Stays without a date sort first
+    static String day(Date date) {
+        return date == null ? "" : day(EntityCodec.toEpochDay(date));
+    }
+
+    static String day(int epochDay) {
+        return String.format(Locale.ROOT, "%08d", epochDay + 50_000_000);
+    }
+}
+
+// The snapshot backend: the whole set in memory, in <name>.snap (an EntityCodec list behind a
+// magic, length and CRC32) plus <name>.snap.log, which every write is appended to and forced first.
+// The log is folded into a new snapshot every COMPACT_AFTER records and on close. Log records are
+// laid out as LsmRepository's, with an empty value for a delete. It has no state outside its own
+// files and fields, so it can sit next to DataManager's lists of the same name
+class SnapshotRepository<V> implements Repository<String, V> {
+    private static final int MAGIC = 0x48525250; // "HRRP"
+    private static final int HEADER = 12, COMPACT_AFTER = 1000;
+    private static final String LOG_SUFFIX = ".log", TEMP_SUFFIX = ".tmp";
+
+    private final Path file, logFile;
+    private final EntityCodec<V> codec;
+    private final Function<V, String> key, index;
+    private final TreeMap<String, V> byKey = new TreeMap<>(), byIndex = new TreeMap<>();
+    private FileChannel log;
+    private int logged;
+
+    SnapshotRepository(Path file, EntityCodec<V> codec, Function<V, String> key, Function<V, String> index) {
+        this.file = file;
+        this.logFile = Paths.get(file + LOG_SUFFIX);
+        this.codec = codec;
+        this.key = key;
+        this.index = index;
+        try {
+            Files.deleteIfExists(Paths.get(file + TEMP_SUFFIX));
+            if (Files.exists(file)) for (V value : readSnapshot()) add(value);
+            replayLog();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized V get(String id) {
+        return byKey.get(id);
+    }
+
+    @Override
+    public synchronized void put(V value) {
+        putAll(Collections.singletonList(value));
+    }
+
+    @Override
+    public synchronized void putAll(Collection<? extends V> values) {
+        Map<String, V> batch = new LinkedHashMap<>();
+        for (V value : values) batch.put(key.apply(value), value);
+        if (batch.isEmpty()) return;
+        append(batch);
+        for (V value : batch.values()) add(value);
+        logged += batch.size();
+        if (logged >= COMPACT_AFTER) compact();
+    }
+
+    @Override
+    public synchronized boolean delete(String id) {
+        if (!byKey.containsKey(id)) return false;
+        append(Collections.singletonMap(id, null));
+        remove(id);
+        if (++logged >= COMPACT_AFTER) compact();
+        return true;
+    }
+
+    @Override
+    public synchronized Stream<V> range(String from, String to) {
+        return new ArrayList<>(sub(byKey, from, to).values()).stream();
+    }
+
+    @Override
+    public synchronized Stream<V> indexRange(String from, String to) {
+        return new ArrayList<>(sub(byIndex, from, to).values()).stream();
+    }
+
+    // Folds the log in, so the next open has nothing to replay
+    @Override
+    public synchronized void close() {
+        if (logged > 0) compact();
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Persistence Error: " + e.getMessage());
+        }
+    }
+
+    // Record: length, entry count, entries (key, value length, value), CRC32 of the entries
+    private void append(Map<String, V> batch) {
+        long end = -1;
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeInt(0);
+            EntityCodec.writeVarInt(out, batch.size());
+            for (Map.Entry<String, V> e : batch.entrySet()) {
+                byte[] value = e.getValue() != null ? codec.encodeRecord(e.getValue()) : new byte[0];
+                EntityCodec.writeString(out, e.getKey());
+                EntityCodec.writeVarInt(out, value.length);
+                out.write(value);
+            }
+            out.writeInt(0);
+            ByteBuffer record = ByteBuffer.wrap(buf.toByteArray());
+            int length = record.capacity() - 8;
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 4, length);
+            record.putInt(0, length).putInt(4 + length, (int) crc.getValue());
+
+            end = log.position();
+            while (record.hasRemaining()) log.write(record);
+            log.force(false);
+        } catch (IOException e) {
+            // A torn record would hide every later one from the replay
+            try {
+                if (end >= 0) log.truncate(end);
+            } catch (IOException ignored) { /* the replay drops it */ }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // A failed compaction only costs replay time: the old snapshot and the log still hold everything.
+    // Replaying a log over the snapshot it was folded into is harmless, so a crash in between is too
+    private void compact() {
+        Metrics.Span span = Metrics.start("compact", file.getFileName().toString());
+        Path temp = Paths.get(file + TEMP_SUFFIX);
+        try {
+            byte[] payload = codec.encodeList(new ArrayList<>(byKey.values()));
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer data = ByteBuffer.allocate(HEADER + payload.length);
+            data.putInt(MAGIC).putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+            try (FileChannel ch = FileChannel.open(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (data.hasRemaining()) ch.write(data);
+                ch.force(true);
+            }
+            DataManager.atomicMove(temp, file);
+            DataManager.syncDirectory(file);
+            log.truncate(0);
+            log.force(false);
+            logged = 0;
+            span.end(data.limit());
+        } catch (IOException e) {
+            span.fail();
+            System.err.println("Persistence Error: " + e.getMessage());
+        }
+    }
+
+    private List<V> readSnapshot() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER || buf.getInt(0) != MAGIC) throw new IOException(file + " is not a snapshot");
+        int length = buf.getInt(4);
+        if (length < 0 || length > bytes.length - HEADER) throw new IOException(file + " is truncated");
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER, length);
+        if ((int) crc.getValue() != buf.getInt(8)) throw new IOException(file + " is damaged");
+        return codec.decodeList(bytes, HEADER, length);
+    }
+
+    // Applies the writes made since the last compaction. A torn record at the end (a crash
+    // mid-write) is cut off
+    private void replayLog() throws IOException {
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer bytes = ByteBuffer.allocate((int) log.size());
+        while (bytes.hasRemaining() && log.read(bytes, bytes.position()) > 0) { /* fill */ }
+        int good = 0, limit = bytes.position();
+        while (limit - good >= 8) {
+            int length = bytes.getInt(good);
+            if (length < 0 || length > limit - good - 8) break;
+            CRC32 crc = new CRC32();
+            crc.update(bytes.array(), good + 4, length);
+            if ((int) crc.getValue() != bytes.getInt(good + 4 + length)) break;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.array(), good + 4, length));
+            for (int n = EntityCodec.readVarInt(in); n > 0; n--) {
+                String id = EntityCodec.readString(in);
+                byte[] value = new byte[EntityCodec.readVarInt(in)];
+                in.readFully(value);
+                if (value.length == 0) remove(id);
+                else add(codec.decodeRecord(value, 0, value.length));
+                logged++;
+            }
+            good += length + 8;
+        }
+        if (good < limit) {
+            System.err.println("Persistence Error: dropped a torn record at the end of " + logFile);
+            log.truncate(good);
+            log.force(false);
+        }
+        log.position(good);
+    }
+
+    private void add(V value) {
+        V old = byKey.put(key.apply(value), value);
+        if (index == null) return;
+        if (old != null) byIndex.remove(indexKey(old));
+        byIndex.put(indexKey(value), value);
+    }
+
+    private void remove(String id) {
+        V old = byKey.remove(id);
+        if (index != null && old != null) byIndex.remove(indexKey(old));
+    }
+
+    // The record's ID makes index keys unique; "\0" keeps a shorter index key sorting first
+    private String indexKey(V value) {
+        return index.apply(value) + '\0' + key.apply(value);
+    }
+
+    private static <V> Map<String, V> sub(TreeMap<String, V> map, String from, String to) {
+        if (from != null && to != null) return from.compareTo(to) < 0 ? map.subMap(from, to) : Collections.emptyMap();
+        if (from != null) return map.tailMap(from);
+        return to != null ? map.headMap(to) : map;
+    }
+}
+
+// LSM BACKEND
+// A small log-structured store in one directory. Each write is appended to wal.log, forced, and
+// put in a sorted memtable; past FLUSH_BYTES the memtable is written out as an immutable sorted
+// table, <n>.sst, and the log starts over. Lookups try the memtable, then the tables newest first,
+// skipping any whose Bloom filter rules the key out; scans merge them all. Deletes leave tombstones
+// until COMPACT_AT tables have piled up and get merged into one. Index entries share the tables
+// under their own prefix and carry a copy of the record, so an index scan needs no lookups, and a
+// write's record and index changes reach the log as one batch. Tables are memory-mapped, so only
+// the memtable and each table's sparse key sample live on the heap.
+//
+// Log record: length, entry count, entries, CRC32. Entry: key, value length (0: tombstone), value.
+// Table: entries in key order, every INDEX_EVERY-th key with its offset, the Bloom filter, then a
+// 20-byte footer: sample offset, filter offset, entry count, CRC32 of all before it, magic.
+class LsmRepository<V> implements Repository<String, V> {
+    private static final int TABLE_MAGIC = 0x48525431; // "HRT1"
+    private static final int FOOTER = 20, INDEX_EVERY = 16, BLOOM_BITS_PER_KEY = 10;
+    private static final int FLUSH_BYTES = 4 << 20, COMPACT_AT = 8, BATCH = 10_000;
+    private static final String LOG = "wal.log", TABLE_SUFFIX = ".sst", TEMP_SUFFIX = ".tmp";
+    private static final char PRIMARY = 'k', INDEX = 'x';
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private final Path dir;
+    private final EntityCodec<V> codec;
+    private final Function<V, String> key, index;
+    private final TreeMap<String, byte[]> memtable = new TreeMap<>();
+    private final List<Table> tables = new ArrayList<>(); // newest first
+    private long memtableBytes, nextTable;
+    private FileChannel log;
+
+    LsmRepository(Path dir, EntityCodec<V> codec, Function<V, String> key, Function<V, String> index) {
+        this.dir = dir;
+        this.codec = codec;
+        this.key = key;
+        this.index = index;
+        try {
+            Files.createDirectories(dir);
+            List<Long> ids = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(TEMP_SUFFIX)) Files.delete(file);
+                    else if (name.matches("\\d+\\" + TABLE_SUFFIX)) ids.add(Long.parseLong(name.substring(0, name.indexOf('.'))));
+                }
+            }
+            ids.sort(Collections.reverseOrder());
+            for (long id : ids) {
+                Path file = dir.resolve(id + TABLE_SUFFIX);
+                try {
+                    tables.add(Table.open(file));
+                } catch (IOException e) {
+                    System.err.println("Persistence Error: " + file + " is damaged (" + e.getMessage() + "), moved aside");
+                    DataManager.atomicMove(file, Paths.get(file + ".corrupt-" + System.currentTimeMillis()));
+                }
+                nextTable = Math.max(nextTable, id + 1);
+            }
+            replayLog();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized V get(String id) {
+        byte[] value = lookup(PRIMARY + id);
+        return value != null ? decode(value) : null;
+    }
+
+    @Override
+    public synchronized void put(V value) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        stage(batch, value);
+        write(batch);
+    }
+
+    @Override
+    public synchronized void putAll(Collection<? extends V> values) {
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        int staged = 0;
+        for (V value : values) {
+            stage(batch, value);
+            if (++staged % BATCH == 0) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) write(batch);
+    }
+
+    @Override
+    public synchronized boolean delete(String id) {
+        byte[] old = lookup(PRIMARY + id);
+        if (old == null) return false;
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        batch.put(PRIMARY + id, TOMBSTONE);
+        if (index != null) batch.put(indexKey(decode(old)), TOMBSTONE);
+        write(batch);
+        return true;
+    }
+
+    @Override
+    public Stream<V> range(String from, String to) {
+        return scan(PRIMARY + (from != null ? from : ""), to != null ? PRIMARY + to : String.valueOf((char) (PRIMARY + 1)));
+    }
+
+    @Override
+    public Stream<V> indexRange(String from, String to) {
+        if (index == null) return Stream.empty();
+        return scan(INDEX + (from != null ? from : ""), to != null ? INDEX + to : String.valueOf((char) (INDEX + 1)));
+    }
+
+    // Writes the memtable out, so the next open has no log to replay
+    @Override
+    public synchronized void close() {
+        flush();
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Persistence Error: " + e.getMessage());
+        }
+    }
+
+    // WRITES
+    // Adds the record and its index entry to a batch. The old index entry is found through the batch
+    // first, so a batch may hold the same record twice
+    private void stage(Map<String, byte[]> batch, V value) {
+        String primary = PRIMARY + key.apply(value);
+        byte[] record = encode(value);
+        if (index != null) {
+            byte[] old = batch.containsKey(primary) ? batch.get(primary) : lookup(primary);
+            String was = old != null && old.length > 0 ? indexKey(decode(old)) : null, now = indexKey(value);
+            if (was != null && !was.equals(now)) batch.put(was, TOMBSTONE);
+            batch.put(now, record);
+        }
+        batch.put(primary, record);
+    }
+
+    private void write(Map<String, byte[]> batch) {
+        long end = -1;
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeInt(0);
+            EntityCodec.writeVarInt(out, batch.size());
+            for (Map.Entry<String, byte[]> e : batch.entrySet()) writeEntry(out, e.getKey(), e.getValue());
+            out.writeInt(0);
+            ByteBuffer record = ByteBuffer.wrap(buf.toByteArray());
+            int length = record.capacity() - 8;
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 4, length);
+            record.putInt(0, length).putInt(4 + length, (int) crc.getValue());
+
+            end = log.position();
+            while (record.hasRemaining()) log.write(record);
+            log.force(false);
+        } catch (IOException e) {
+            // A torn record would hide every later one from the replay
+            try {
+                if (end >= 0) log.truncate(end);
+            } catch (IOException ignored) { /* the replay drops it */ }
+            throw new UncheckedIOException(e);
+        }
+        for (Map.Entry<String, byte[]> e : batch.entrySet()) remember(e.getKey(), e.getValue());
+        if (memtableBytes >= FLUSH_BYTES) flush();
+    }
+
+    private void remember(String k, byte[] value) {
+        byte[] old = memtable.put(k, value);
+        memtableBytes += value.length - (old != null ? old.length : -2L * k.length() - 64);
+    }
+
+    // A failed flush or compaction only costs space: the log and the old tables still hold everything
+    private void flush() {
+        if (memtable.isEmpty()) return;
+        Metrics.Span span = Metrics.start("flush", dir.getFileName().toString());
+        try {
+            Table table = Table.write(dir.resolve(nextTable++ + TABLE_SUFFIX), memtable.entrySet().iterator(),
+                    memtable.size(), false);
+            tables.add(0, table);
+            memtable.clear();
+            memtableBytes = 0;
+            log.truncate(0);
+            log.force(false);
+            span.end(table.data.capacity());
+        } catch (IOException e) {
+            span.fail();
+            System.err.println("Persistence Error: " + e.getMessage());
+            return;
+        }
+        if (tables.size() >= COMPACT_AT) compact();
+    }
+
+    // Merges every table into one. Nothing older is left for a tombstone to hide, so they go too
+    private void compact() {
+        Metrics.Span span = Metrics.start("compact", dir.getFileName().toString());
+        try {
+            List<Cursor> cursors = new ArrayList<>();
+            int entries = 0;
+            for (int age = 0; age < tables.size(); age++) {
+                cursors.add(tables.get(age).cursor(age, null, null));
+                entries += tables.get(age).count;
+            }
+            Table merged = Table.write(dir.resolve(nextTable++ + TABLE_SUFFIX), merge(cursors), entries, true);
+            List<Table> old = new ArrayList<>(tables);
+            tables.clear();
+            tables.add(merged);
+            // Oldest first, so a crash part way never leaves a value without the tombstone that hid it
+            for (int i = old.size() - 1; i >= 0; i--) Files.deleteIfExists(old.get(i).path);
+            span.end(merged.data.capacity());
+        } catch (IOException e) {
+            span.fail();
+            System.err.println("Persistence Error: " + e.getMessage());
+        }
+    }
+
+    // Loads the records written since the last flush. A torn record at the end (a crash mid-write)
+    // is cut off
+    private void replayLog() throws IOException {
+        Path file = dir.resolve(LOG);
+        log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer bytes = ByteBuffer.allocate((int) log.size());
+        while (bytes.hasRemaining() && log.read(bytes, bytes.position()) > 0) { /* fill */ }
+        int good = 0, limit = bytes.position();
+        while (limit - good >= 8) {
+            int length = bytes.getInt(good);
+            if (length < 0 || length > limit - good - 8) break;
+            CRC32 crc = new CRC32();
+            crc.update(bytes.array(), good + 4, length);
+            if ((int) crc.getValue() != bytes.getInt(good + 4 + length)) break;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.array(), good + 4, length));
+            for (int n = EntityCodec.readVarInt(in); n > 0; n--) {
+                String k = EntityCodec.readString(in);
+                byte[] value = new byte[EntityCodec.readVarInt(in)];
+                in.readFully(value);
+                remember(k, value);
+            }
+            good += length + 8;
+        }
+        if (good < limit) {
+            System.err.println("Persistence Error: dropped a torn record at the end of " + file);
+            log.truncate(good);
+            log.force(false);
+        }
+        log.position(good);
+    }
+
+    // READS
+    // The newest value of a key, null if it was never written or is deleted
+    private byte[] lookup(String k) {
+        byte[] value = memtable.get(k);
+        for (int i = 0; value == null && i < tables.size(); i++) value = tables.get(i).get(k);
+        return value != null && value.length > 0 ? value : null;
+    }
+
+    // The memtable part is copied, the tables are immutable, so the stream may be read after later writes
+    private synchronized Stream<V> scan(String from, String to) {
+        if (from.compareTo(to) >= 0) return Stream.empty();
+        List<Cursor> cursors = new ArrayList<>();
+        List<Map.Entry<String, byte[]>> recent = new ArrayList<>();
+        for (Map.Entry<String, byte[]> e : memtable.subMap(from, to).entrySet()) {
+            recent.add(new AbstractMap.SimpleImmutableEntry<>(e));
+        }
+        Iterator<Map.Entry<String, byte[]>> memory = recent.iterator();
+        cursors.add(new Cursor(0) {
+            boolean next() {
+                if (!memory.hasNext()) return false;
+                Map.Entry<String, byte[]> e = memory.next();
+                key = e.getKey();
+                value = e.getValue();
+                return true;
+            }
+        });
+        for (int i = 0; i < tables.size(); i++) cursors.add(tables.get(i).cursor(i + 1, from, to));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merge(cursors), Spliterator.ORDERED), false)
+                .filter(e -> e.getValue().length > 0)
+                .map(e -> decode(e.getValue()));
+    }
+
+    // Position in one sorted source; a lower age is newer
+    private abstract static class Cursor {
+        final int age;
+        String key;
+        byte[] value;
+
+        Cursor(int age) {
+            this.age = age;
+        }
+
+        // Moves to the next entry, false at the end
+        abstract boolean next();
+    }
+
+    // The newest entry of every key across the cursors, tombstones included
+    private static Iterator<Map.Entry<String, byte[]>> merge(List<Cursor> cursors) {
+        PriorityQueue<Cursor> heap = new PriorityQueue<>((a, b) -> {
+            int c = a.key.compareTo(b.key);
+            return c != 0 ? c : Integer.compare(a.age, b.age);
+        });
+        for (Cursor c : cursors) if (c.next()) heap.add(c);
+        return new Iterator<Map.Entry<String, byte[]>>() {
+            public boolean hasNext() {
+                return !heap.isEmpty();
+            }
+
+            public Map.Entry<String, byte[]> next() {
+                Cursor top = heap.poll();
+                if (top == null) throw new NoSuchElementException();
+                Map.Entry<String, byte[]> entry = new AbstractMap.SimpleImmutableEntry<>(top.key, top.value);
+                if (top.next()) heap.add(top);
+                while (!heap.isEmpty() && heap.peek().key.equals(entry.getKey())) {
+                    Cursor older = heap.poll();
+                    if (older.next()) heap.add(older);
+                }
+                return entry;
+            }
+        };
+    }
+
+    // TABLE FILES
+    private static final class Table {
+        final Path path;
+        final ByteBuffer data;
+        final String[] keys;     // every INDEX_EVERY-th key
+        final int[] offsets;
+        final long[] bloom;
+        final int entriesEnd, count;
+
+        private Table(Path path, ByteBuffer data, String[] keys, int[] offsets, long[] bloom, int entriesEnd, int count) {
+            this.path = path;
+            this.data = data;
+            this.keys = keys;
+            this.offsets = offsets;
+            this.bloom = bloom;
+            this.entriesEnd = entriesEnd;
+            this.count = count;
+        }
+
+        // Written to a temp file, forced, then renamed, so a table on disk is always complete.
+        // expected is an upper bound on the entries, for sizing the Bloom filter
+        static Table write(Path file, Iterator<Map.Entry<String, byte[]>> entries, int expected,
+                           boolean dropTombstones) throws IOException {
+            Path temp = Paths.get(file + TEMP_SUFFIX);
+            long[] bloom = new long[Math.max(1, (int) (((long) expected * BLOOM_BITS_PER_KEY + 63) / 64))];
+            ByteArrayOutputStream sample = new ByteArrayOutputStream();
+            DataOutputStream sampled = new DataOutputStream(sample);
+            CRC32 crc = new CRC32();
+            int count = 0;
+            try (FileOutputStream raw = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(raw, crc), 1 << 16))) {
+                while (entries.hasNext()) {
+                    Map.Entry<String, byte[]> e = entries.next();
+                    if (dropTombstones && e.getValue().length == 0) continue;
+                    if (count++ % INDEX_EVERY == 0) {
+                        EntityCodec.writeString(sampled, e.getKey());
+                        sampled.writeInt(out.size());
+                    }
+                    ReservationArchive.add(bloom, e.getKey());
+                    writeEntry(out, e.getKey(), e.getValue());
+                }
+                int sampleAt = out.size();
+                EntityCodec.writeVarInt(out, (count + INDEX_EVERY - 1) / INDEX_EVERY);
+                sample.writeTo(out);
+                int bloomAt = out.size();
+                out.writeInt(bloom.length);
+                for (long word : bloom) out.writeLong(word);
+                out.writeInt(sampleAt);
+                out.writeInt(bloomAt);
+                out.writeInt(count);
+                out.flush();
+                out.writeInt((int) crc.getValue());
+                out.writeInt(TABLE_MAGIC);
+                out.flush();
+                raw.getFD().sync();
+            }
+            DataManager.atomicMove(temp, file);
+            DataManager.syncDirectory(file);
+            return open(file);
+        }
+
+        static Table open(Path file) throws IOException {
+            ByteBuffer data;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            }
+            int size = data.capacity();
+            if (size < FOOTER || data.getInt(size - 4) != TABLE_MAGIC) throw new IOException("not a table file");
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate().limit(size - 8));
+            if ((int) crc.getValue() != data.getInt(size - 8)) throw new IOException("checksum mismatch");
+
+            int sampleAt = data.getInt(size - FOOTER), bloomAt = data.getInt(size - 16), count = data.getInt(size - 12);
+            ByteBuffer in = data.duplicate().position(sampleAt);
+            int n = readVarInt(in);
+            String[] keys = new String[n];
+            int[] offsets = new int[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = readString(in);
+                offsets[i] = in.getInt();
+            }
+            in.position(bloomAt);
+            long[] bloom = new long[in.getInt()];
+            for (int i = 0; i < bloom.length; i++) bloom[i] = in.getLong();
+            return new Table(file, data, keys, offsets, bloom, sampleAt, count);
+        }
+
+        // The value (empty for a tombstone), or null when the table has no entry for the key
+        byte[] get(String k) {
+            if (!ReservationArchive.mightContain(bloom, k)) return null;
+            int block = floor(k);
+            if (block < 0) return null;
+            ByteBuffer in = data.duplicate().position(offsets[block]);
+            int end = block + 1 < offsets.length ? offsets[block + 1] : entriesEnd;
+            while (in.position() < end) {
+                int c = readString(in).compareTo(k), length = readVarInt(in);
+                if (c > 0) return null;
+                if (c == 0) {
+                    byte[] value = new byte[length];
+                    in.get(value);
+                    return value;
+                }
+                in.position(in.position() + length);
+            }
+            return null;
+        }
+
+        // Entries with from <= key < to, starting at the sampled key before from
+        Cursor cursor(int age, String from, String to) {
+            ByteBuffer in = data.duplicate().position(from == null || offsets.length == 0 ? 0 : offsets[Math.max(0, floor(from))]);
+            return new Cursor(age) {
+                boolean next() {
+                    while (in.position() < entriesEnd) {
+                        String k = readString(in);
+                        byte[] v = new byte[readVarInt(in)];
+                        in.get(v);
+                        if (from != null && k.compareTo(from) < 0) continue;
+                        if (to != null && k.compareTo(to) >= 0) {
+                            in.position(entriesEnd);
+                            return false;
+                        }
+                        key = k;
+                        value = v;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        // Last sampled key <= k, -1 when k sorts before the whole table
+        private int floor(String k) {
+            int i = Arrays.binarySearch(keys, k);
+            return i >= 0 ? i : -i - 2;
+        }
+    }
+
+    // HELPERS
+    private String indexKey(V value) {
+        return INDEX + index.apply(value) + '\0' + key.apply(value);
+    }
+
+    private byte[] encode(V value) {
+        try {
+            return codec.encodeRecord(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private V decode(byte[] value) {
+        try {
+            return codec.decodeRecord(value, 0, value.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, String k, byte[] value) throws IOException {
+        EntityCodec.writeString(out, k);
+        EntityCodec.writeVarInt(out, value.length);
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.get() & 0xff;
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IllegalStateException("Malformed length");
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] utf8 = new byte[readVarInt(in) - 1];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
+
+// OCCUPANCY AND REVENUE ANALYTICS
+// Room-nights sold and revenue per night, bucketed by month and by room type x bed type, so a KPI
+// query adds up a few monthly totals (plus the days of a partial month at either end) instead of
+// walking every reservation. Built in parallel over primitive epoch-day arrays, then kept current
+// by commit() like the availability index. A stay's total is spread evenly over its nights.
+// Lives on the event dispatch thread once built.
+class Analytics {
+    private static final int BEDS = BedType.values().length;
+    static final int UNKNOWN = RoomType.values().length * BEDS; // bookings for rooms that no longer exist
+    private static final int GROUPS = UNKNOWN + 1;
+
+    private final Map<String, Integer> groupOf = new HashMap<>();
+    private final int[] roomsPerGroup = new int[GROUPS];
+    private final Map<Integer, Month> months;
+
+    // Figures for one date range; capacity counts the rooms that exist now
+    static final class Kpi {
+        final int days;
+        final int[] rooms;
+        final long[] nights = new long[GROUPS], revenue = new long[GROUPS];
+
+        private Kpi(int days, int[] rooms) {
+            this.days = days;
+            this.rooms = rooms;
+        }
+
+        long revenue() { return sum(revenue, true); }
+        long nightsSold() { return sum(nights, true); }
+        long roomNights() {
+            long total = 0;
+            for (int g = 0; g < UNKNOWN; g++) total += (long) rooms[g] * days;
+            return total;
+        }
+
+        double occupancy() { return roomNights() == 0 ? 0 : (double) sum(nights, false) / roomNights(); }
+        double adr() { return nightsSold() == 0 ? 0 : (double) revenue() / nightsSold(); }
+        double revPar() { return roomNights() == 0 ? 0 : (double) revenue() / roomNights(); }
+
+        EnumMap<RoomType, Long> revenueByType() {
+            EnumMap<RoomType, Long> byType = new EnumMap<>(RoomType.class);
+            for (RoomType type : RoomType.values()) {
+                long total = 0;
+                for (int b = 0; b < BEDS; b++) total += revenue[type.ordinal() * BEDS + b];
+                byType.put(type, total);
+            }
+            return byType;
+        }
+
+        EnumMap<BedType, Long> revenueByBed() {
+            EnumMap<BedType, Long> byBed = new EnumMap<>(BedType.class);
+            for (BedType bed : BedType.values()) {
+                long total = 0;
+                for (int t = 0; t < UNKNOWN / BEDS; t++) total += revenue[t * BEDS + bed.ordinal()];
+                byBed.put(bed, total);
+            }
+            return byBed;
+        }
+
+        private static long sum(long[] values, boolean withUnknown) {
+            long total = 0;
+            for (int g = 0; g < (withUnknown ? GROUPS : UNKNOWN); g++) total += values[g];
+            return total;
+        }
+    }
+
+    // One calendar month: per-day cells for partial ranges, per-group totals for whole months
+    private static final class Month {
+        final int firstDay, days;
+        final int[] nights;
+        final long[] revenue;
+        final long[] totalNights = new long[GROUPS], totalRevenue = new long[GROUPS];
+
+        Month(int key) {
+            YearMonth month = YearMonth.of(key / 12, key % 12 + 1);
+            firstDay = (int) month.atDay(1).toEpochDay();
+            days = month.lengthOfMonth();
+            nights = new int[GROUPS * days];
+            revenue = new long[GROUPS * days];
+        }
+
+        void add(int group, int day, int sign, long amount) {
+            put(group, day - firstDay, sign, sign * amount);
+        }
+
+        void put(int group, int dayOfMonth, int sold, long amount) {
+            int cell = group * days + dayOfMonth;
+            nights[cell] += sold;
+            revenue[cell] += amount;
+            totalNights[group] += sold;
+            totalRevenue[group] += amount;
+        }
+
+        void merge(Month other) {
+            for (int i = 0; i < nights.length; i++) {
+                nights[i] += other.nights[i];
+                revenue[i] += other.revenue[i];
+            }
+            for (int g = 0; g < GROUPS; g++) {
+                totalNights[g] += other.totalNights[g];
+                totalRevenue[g] += other.totalRevenue[g];
+            }
+        }
+    }
+
+    // Nights sold and revenue per room and day for the archived stays. The archive keeps these in its
+    // manifest and updates them with every archived edit; they are per room rather than per group so
+    // a rebuild after a room changes type can regroup them without reading the month files
+    static final class RoomNights {
+        private final TreeMap<Integer, Map<String, Cells>> months = new TreeMap<>();
+
+        private static final class Cells {
+            final int[] nights;
+            final long[] revenue;
+
+            Cells(int days) {
+                nights = new int[days];
+                revenue = new long[days];
+            }
+        }
+
+        void add(Reservation r, int sign) {
+            if (r.getCheckIn() == null || r.getCheckOut() == null) return;
+            int in = EntityCodec.toEpochDay(r.getCheckIn()), n = EntityCodec.toEpochDay(r.getCheckOut()) - in;
+            long total = r.getTotal();
+            Cells cells = null;
+            int firstDay = 0;
+            for (int k = 0; k < n; k++) {
+                int day = in + k;
+                if (cells == null || day >= firstDay + cells.nights.length) {
+                    YearMonth month = YearMonth.from(LocalDate.ofEpochDay(day));
+                    int key = month.getYear() * 12 + month.getMonthValue() - 1, days = month.lengthOfMonth();
+                    firstDay = (int) month.atDay(1).toEpochDay();
+                    cells = months.computeIfAbsent(key, m -> new HashMap<>())
+                            .computeIfAbsent(r.getRoomId(), id -> new Cells(days));
+                }
+                cells.nights[day - firstDay] += sign;
+                cells.revenue[day - firstDay] += sign * (total * (k + 1) / n - total * k / n);
+            }
+        }
+
+        // Per month: its key and room count, then per room its ID and the nights and revenue of each day
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(months.size());
+            for (Map.Entry<Integer, Map<String, Cells>> month : months.entrySet()) {
+                out.writeInt(month.getKey());
+                out.writeInt(month.getValue().size());
+                for (Map.Entry<String, Cells> room : month.getValue().entrySet()) {
+                    out.writeUTF(room.getKey());
+                    for (int sold : room.getValue().nights) out.writeInt(sold);
+                    for (long amount : room.getValue().revenue) out.writeLong(amount);
+                }
+            }
+        }
+
+        static RoomNights read(DataInputStream in) throws IOException {
+            RoomNights stored = new RoomNights();
+            for (int m = in.readInt(); m > 0; m--) {
+                int key = in.readInt(), days = YearMonth.of(key / 12, key % 12 + 1).lengthOfMonth();
+                Map<String, Cells> rooms = new HashMap<>();
+                for (int r = in.readInt(); r > 0; r--) {
+                    String roomId = in.readUTF();
+                    Cells cells = new Cells(days);
+                    for (int d = 0; d < days; d++) cells.nights[d] = in.readInt();
+                    for (int d = 0; d < days; d++) cells.revenue[d] = in.readLong();
+                    rooms.put(roomId, cells);
+                }
+                stored.months.put(key, rooms);
+            }
+            return stored;
+        }
+    }
+
+    Analytics(List<Room> rooms, List<Reservation> reservations, RoomNights archived) {
+        for (Room room : rooms) {
+            int group = group(room);
+            groupOf.put(room.getRoomId(), group);
+            if (group != UNKNOWN) roomsPerGroup[group]++;
+        }
+
+        // Decoding the rows is sequential; the aggregation over plain arrays runs on the fork-join pool
+        int n = reservations.size();
+        int[] in = new int[n], out = new int[n], group = new int[n];
+        long[] total = new long[n];
+        for (int i = 0; i < n; i++) {
+            Reservation r = reservations.get(i);
+            if (r.getCheckIn() == null || r.getCheckOut() == null) continue;
+            in[i] = EntityCodec.toEpochDay(r.getCheckIn());
+            out[i] = EntityCodec.toEpochDay(r.getCheckOut());
+            group[i] = groupOf.getOrDefault(r.getRoomId(), UNKNOWN);
+            total[i] = r.getTotal();
+        }
+        months = IntStream.range(0, n).parallel().collect(HashMap::new,
+                (acc, i) -> add(acc, group[i], in[i], out[i], total[i], 1), Analytics::merge);
+
+        archived.months.forEach((key, byRoom) -> {
+            Month month = months.computeIfAbsent(key, Month::new);
+            byRoom.forEach((roomId, cells) -> {
+                int g = groupOf.getOrDefault(roomId, UNKNOWN);
+                for (int d = 0; d < month.days; d++) {
+                    if (cells.nights[d] != 0 || cells.revenue[d] != 0) month.put(g, d, cells.nights[d], cells.revenue[d]);
+                }
+            });
+        });
+    }
+
+    // Keeps the figures in step with an insert (old null), update or delete (item null)
+    void commit(Reservation old, Reservation item) {
+        if (old != null) add(old, -1);
+        if (item != null) add(item, 1);
+    }
+
+    // False when the change moves bookings between groups; the caller then rebuilds
+    boolean roomChanged(Room old, Room item) {
+        return old != null && item != null && Objects.equals(old.getRoomId(), item.getRoomId())
+                && group(old) == group(item);
+    }
+
+    // Nights from .. to - 1
+    Kpi kpi(int from, int to) {
+        Kpi kpi = new Kpi(to - from, roomsPerGroup.clone());
+        for (int key = monthKey(from), last = monthKey(to - 1); key <= last; key++) {
+            Month month = months.get(key);
+            if (month == null) continue;
+            int lo = Math.max(from, month.firstDay), hi = Math.min(to, month.firstDay + month.days);
+            for (int g = 0; g < GROUPS; g++) {
+                if (lo == month.firstDay && hi == month.firstDay + month.days) {
+                    kpi.nights[g] += month.totalNights[g];
+                    kpi.revenue[g] += month.totalRevenue[g];
+                    continue;
+                }
+                for (int cell = g * month.days + lo - month.firstDay, end = cell + hi - lo; cell < end; cell++) {
+                    kpi.nights[g] += month.nights[cell];
+                    kpi.revenue[g] += month.revenue[cell];
+                }
+            }
+        }
+        return kpi;
+    }
+
+    private void add(Reservation r, int sign) {
+        if (r.getCheckIn() == null || r.getCheckOut() == null) return;
+        add(months, groupOf.getOrDefault(r.getRoomId(), UNKNOWN), EntityCodec.toEpochDay(r.getCheckIn()),
+                EntityCodec.toEpochDay(r.getCheckOut()), r.getTotal(), sign);
+    }
+
+    private static void add(Map<Integer, Month> months, int group, int in, int out, long total, int sign) {
+        int n = out - in;
+        Month month = null;
+        for (int k = 0; k < n; k++) {
+            int day = in + k;
+            if (month == null || day >= month.firstDay + month.days) month = months.computeIfAbsent(monthKey(day), Month::new);
+            month.add(group, day, sign, total * (k + 1) / n - total * k / n);
+        }
+    }
+
+    private static void merge(Map<Integer, Month> into, Map<Integer, Month> from) {
+        from.forEach((key, month) -> {
+            Month existing = into.putIfAbsent(key, month);
+            if (existing != null) existing.merge(month);
+        });
+    }
+
+    private static int group(Room room) {
+        if (room.getType() == null || room.getBed() == null) return UNKNOWN;
+        return room.getType().ordinal() * BEDS + room.getBed().ordinal();
+    }
+
+    private static int monthKey(int epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+}
+
+// PRICING
+// A stay's total is the room's nightly price times a multiplier per night for the weekday and the
+// season, read from pricing.properties (no file: every night at the room's price). The multipliers
+// are precomputed per room type into an epoch-day table, so a quote is a loop over the nights with
+// no allocation; nights outside the table are worked out directly. Immutable, so any thread may quote.
+//
+//   weekday.SATURDAY=120                  percent of the room's price
+//   season.summer=06-01..08-31:130        month-day range, may wrap the year end
+//   SUITE.weekday.SATURDAY=150            a room type's own rule replaces the general one
+//
+// Weekday and season multiply; where seasons overlap the highest applies.
+final class Pricing {
+    static final String CONFIG = "pricing.properties";
+    private static final int TYPES = RoomType.values().length, FLAT = 100;
+    private static final int YEARS_BACK = 1, YEARS_AHEAD = 3;
+    private static volatile Pricing current;
+
+    private final int[][] weekday = new int[TYPES][7];                  // percent, Monday first
+    private final List<Map<String, int[]>> seasons = new ArrayList<>(); // per type: name -> {from, to, percent}
+    private final int firstDay;
+    private final int[][] table;                                        // [type][day - firstDay], basis points
+
+    static Pricing get() {
+        Pricing pricing = current;
+        if (pricing == null) {
+            synchronized (Pricing.class) {
+                if (current == null) current = new Pricing(load());
+                pricing = current;
+            }
+        }
+        return pricing;
+    }
+
+    Pricing(Properties rules) {
+        for (int[] days : weekday) Arrays.fill(days, FLAT);
+        for (int t = 0; t < TYPES; t++) seasons.add(new LinkedHashMap<>());
+        // General rules first so that a room type's own rules overwrite them
+        for (boolean typed : new boolean[]{false, true}) {
+            for (String key : new TreeSet<>(rules.stringPropertyNames())) {
+                String[] parts = key.split("\\.");
+                if ((parts.length == 3) != typed) continue;
+                try {
+                    rule(parts, rules.getProperty(key).trim());
+                } catch (RuntimeException e) {
+                    System.err.println("Pricing Error: ignoring " + key + " (" + e.getMessage() + ")");
+                }
+            }
+        }
+
+        int year = LocalDate.now().getYear();
+        firstDay = (int) LocalDate.of(year - YEARS_BACK, 1, 1).toEpochDay();
+        int days = (int) LocalDate.of(year + YEARS_AHEAD + 1, 1, 1).toEpochDay() - firstDay;
+        table = new int[TYPES][days];
+        for (int t = 0; t < TYPES; t++) {
+            for (int d = 0; d < days; d++) table[t][d] = basisPoints(t, firstDay + d);
+        }
+    }
+
+    // Total for nights in .. out - 1 of the room
+    int quote(Room room, int in, int out) {
+        long points = 0;
+        if (room.getType() == null) {
+            points = (long) Math.max(0, out - in) * FLAT * FLAT;
+        } else {
+            int t = room.getType().ordinal();
+            int[] days = table[t];
+            for (int d = in; d < out; d++) {
+                int i = d - firstDay;
+                points += i >= 0 && i < days.length ? days[i] : basisPoints(t, d);
+            }
+        }
+        return (int) ((room.getPrice() * points + FLAT * FLAT / 2) / (FLAT * FLAT));
+    }
+
+    int quote(Room room, Date in, Date out) {
+        return quote(room, EntityCodec.toEpochDay(in), EntityCodec.toEpochDay(out));
+    }
+
+    private int basisPoints(int type, int epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        int monthDay = date.getMonthValue() * 100 + date.getDayOfMonth(), season = 0;
+        for (int[] range : seasons.get(type).values()) {
+            boolean in = range[0] <= range[1] ? monthDay >= range[0] && monthDay <= range[1]
+                    : monthDay >= range[0] || monthDay <= range[1];
+            if (in) season = Math.max(season, range[2]);
+        }
+        return weekday[type][date.getDayOfWeek().getValue() - 1] * (season == 0 ? FLAT : season);
+    }
+
+    private void rule(String[] parts, String value) {
+        if (parts.length < 2 || parts.length > 3) throw new IllegalArgumentException("unknown rule");
+        int at = parts.length - 2;
+        List<Integer> types = new ArrayList<>();
+        if (at == 0) {
+            for (int t = 0; t < TYPES; t++) types.add(t);
+        } else {
+            types.add(RoomType.valueOf(parts[0].toUpperCase(Locale.ROOT)).ordinal());
+        }
+        switch (parts[at]) {
+            case "weekday": {
+                int day = DayOfWeek.valueOf(parts[at + 1].toUpperCase(Locale.ROOT)).getValue() - 1;
+                int percent = percent(value);
+                for (int t : types) weekday[t][day] = percent;
+                break;
+            }
+            case "season": {
+                String[] range = value.split("\\.\\.|:");
+                if (range.length != 3) throw new IllegalArgumentException("expected MM-dd..MM-dd:percent");
+                int[] season = {monthDay(range[0]), monthDay(range[1]), percent(range[2])};
+                for (int t : types) seasons.get(t).put(parts[at + 1], season);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown rule " + parts[at]);
+        }
+    }
+
+    private static int percent(String value) {
+        int percent = Integer.parseInt(value.trim());
+        if (percent <= 0) throw new IllegalArgumentException("percent must be positive");
+        return percent;
+    }
+
+    private static int monthDay(String value) {
+        MonthDay day = MonthDay.parse("--" + value.trim());
+        return day.getMonthValue() * 100 + day.getDayOfMonth();
+    }
+
+    private static Properties load() {
+        Properties rules = new Properties();
+        File file = new File(CONFIG);
+        if (!file.exists()) return rules;
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            rules.load(in);
+        } catch (IOException e) {
+            System.err.println("Pricing Error: " + e.getMessage());
+        }
+        return rules;
+    }
+}
+
+// AVAILABILITY INDEX
+// Per-room calendar of booked stays kept sorted by check-in day, so a double-booking check is a
+// binary search over one room's stays instead of a scan over every reservation.
+// Rooms are guarded by striped locks: claim() checks and books a room atomically while bookings
+// for rooms on other stripes go ahead in parallel.
+class AvailabilityIndex {
+    private static final int STRIPES = 64;
+
+    private final Map<String, RoomCalendar> rooms = new ConcurrentHashMap<>();
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    // Bookings claimed but not yet written to the reservation list (see commit)
+    private final Set<Reservation> claims = ConcurrentHashMap.newKeySet();
+
+    AvailabilityIndex(List<Reservation> reservations) {
+        for (int i = 0; i < STRIPES; i++) locks[i] = new ReentrantLock();
+        for (Reservation r : reservations) add(r);
+    }
+
+    void add(Reservation r) {
+        if (r.getRoomId() == null || r.getCheckIn() == null || r.getCheckOut() == null) return;
+        ReentrantLock lock = lock(r.getRoomId());
+        lock.lock();
+        try {
+            rooms.computeIfAbsent(r.getRoomId(), k -> new RoomCalendar())
+                    .add(EntityCodec.toEpochDay(r.getCheckIn()), EntityCodec.toEpochDay(r.getCheckOut()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(Reservation r) {
+        if (r.getRoomId() == null || r.getCheckIn() == null || r.getCheckOut() == null) return;
+        ReentrantLock lock = lock(r.getRoomId());
+        lock.lock();
+        try {
+            RoomCalendar calendar = rooms.get(r.getRoomId());
+            if (calendar != null) {
+                calendar.remove(EntityCodec.toEpochDay(r.getCheckIn()), EntityCodec.toEpochDay(r.getCheckOut()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // True when no stay in the room overlaps the nights [in, out)
+    boolean isAvailable(String roomId, int in, int out) {
+        return isAvailable(roomId, in, out, null);
+    }
+
+    // ignore: the booking being edited, so it does not clash with itself. Its stay is skipped while
+    // checking rather than taken out of the calendar, so only this room's stripe is ever locked and
+    // nobody else can book over it in the meantime
+    boolean isAvailable(String roomId, int in, int out, Reservation ignore) {
+        ReentrantLock lock = lock(roomId);
+        lock.lock();
+        try {
+            RoomCalendar calendar = rooms.get(roomId);
+            if (calendar == null) return true;
+            if (ignore == null || !Objects.equals(ignore.getRoomId(), roomId)
+                    || ignore.getCheckIn() == null || ignore.getCheckOut() == null) {
+                return !calendar.overlaps(in, out);
+            }
+            return !calendar.overlaps(in, out,
+                    EntityCodec.toEpochDay(ignore.getCheckIn()), EntityCodec.toEpochDay(ignore.getCheckOut()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Atomic check-and-book: takes the booking's nights (releasing replacing's, when editing) if no
+    // other stay in the room overlaps them. The claim holds until commit() or release()
+    boolean claim(Reservation booking, Reservation replacing) {
+        ReentrantLock[] held = lockBoth(booking, replacing);
+        try {
+            if (replacing != null) remove(replacing);
+            if (!isAvailable(booking.getRoomId(), EntityCodec.toEpochDay(booking.getCheckIn()),
+                    EntityCodec.toEpochDay(booking.getCheckOut()))) {
+                if (replacing != null) add(replacing);
+                return false;
+            }
+            add(booking);
+            claims.add(booking);
+            return true;
+        } finally {
+            for (ReentrantLock lock : held) lock.unlock();
+        }
+    }
+
+    // Undoes a claim whose edit did not make it into the reservation list
+    void release(Reservation booking, Reservation replacing) {
+        ReentrantLock[] held = lockBoth(booking, replacing);
+        try {
+            if (!claims.remove(booking)) return;
+            remove(booking);
+            if (replacing != null) add(replacing);
+        } finally {
+            for (ReentrantLock lock : held) lock.unlock();
+        }
+    }
+
+    // An edit reached the reservation list; claimed bookings are already in the calendars
+    void commit(Reservation old, Reservation item) {
+        if (item != null && claims.remove(item)) return;
+        if (old != null) remove(old);
+        if (item != null) add(item);
+    }
+
+    private ReentrantLock lock(String roomId) {
+        return locks[stripe(roomId)];
+    }
+
+    private static int stripe(String roomId) {
+        int h = roomId == null ? 0 : roomId.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    // Locks the stripes of both rooms in stripe order, so two edits moving bookings between the same
+    // rooms cannot deadlock
+    private ReentrantLock[] lockBoth(Reservation booking, Reservation replacing) {
+        int a = stripe(booking.getRoomId());
+        int b = replacing == null ? a : stripe(replacing.getRoomId());
+        ReentrantLock[] held = a == b ? new ReentrantLock[]{locks[a]}
+                : new ReentrantLock[]{locks[Math.min(a, b)], locks[Math.max(a, b)]};
+        for (ReentrantLock lock : held) lock.lock();
+        return held;
+    }
+
+    // Stays sorted by check-in, with a running maximum of check-out so older overlapping data
+    // (booked before conflicts were rejected) is still caught by a single lookup
+    private static final class RoomCalendar {
+        private int[] starts = new int[8], ends = new int[8], maxEnd = new int[8];
+        private int size;
+
+        void add(int start, int end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                maxEnd = Arrays.copyOf(maxEnd, size * 2);
+            }
+            int i = firstStartAtOrAfter(start);
+            System.arraycopy(starts, i, starts, i + 1, size - i);
+            System.arraycopy(ends, i, ends, i + 1, size - i);
+            starts[i] = start;
+            ends[i] = end;
+            size++;
+            updateMax(i);
+        }
+
+        void remove(int start, int end) {
+            for (int i = firstStartAtOrAfter(start); i < size && starts[i] == start; i++) {
+                if (ends[i] == end) {
+                    System.arraycopy(starts, i + 1, starts, i, size - i - 1);
+                    System.arraycopy(ends, i + 1, ends, i, size - i - 1);
+                    size--;
+                    updateMax(i);
+                    return;
+                }
+            }
+        }
+
+        boolean overlaps(int in, int out) {
+            int before = firstStartAtOrAfter(out);
+            return before > 0 && maxEnd[before - 1] > in;
+        }
+
+        // Same, not counting one stay [skipStart, skipEnd): walks back over the stays that could
+        // overlap, which the running maximum cuts off as soon as none further back can
+        boolean overlaps(int in, int out, int skipStart, int skipEnd) {
+            boolean skipped = false;
+            for (int i = firstStartAtOrAfter(out) - 1; i >= 0 && maxEnd[i] > in; i--) {
+                if (ends[i] <= in) continue;
+                if (!skipped && starts[i] == skipStart && ends[i] == skipEnd) {
+                    skipped = true;
+                    continue;
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private void updateMax(int from) {
+            for (int i = from; i < size; i++) {
+                maxEnd[i] = i == 0 ? ends[i] : Math.max(maxEnd[i - 1], ends[i]);
+            }
+        }
+
+        private int firstStartAtOrAfter(int day) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] < day) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+    }
+}
+
+// HOTEL SERVICE
+// Headless booking engine. The Swing forms and the HTTP endpoint both go through here, so the rules
+// (unique IDs, real stays, no double booking) live in one place instead of in button handlers.
+// The entity lists are not thread-safe, so every call runs on the event dispatch thread; callers on
+// other threads (HTTP workers) wait for their turn.
+class HotelService {
+    static final String ROOMS = "rooms.dat", CUSTOMERS = "cust.dat", RESERVATIONS = "res.dat";
+
+    // Row-level edit notice for rows first..last; type is TableModelEvent.INSERT, UPDATE or DELETE
+    interface RowListener {
+        void rowsChanged(int type, int first, int last);
+    }
+
+    private static final HotelService INSTANCE = new HotelService();
+    private final Map<String, List<RowListener>> rowListeners = new HashMap<>();
+
+    private HotelService() {}
+
+    static HotelService get() {
+        return INSTANCE;
+    }
+
+    // Runs the task on the event dispatch thread and hands back its result or exception
+    static <V> V call(Callable<V> task) {
+        try {
+            if (SwingUtilities.isEventDispatchThread()) return task.call();
+            Object[] result = new Object[1];
+            SwingUtilities.invokeAndWait(() -> {
+                try {
+                    result[0] = task.call();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+            @SuppressWarnings("unchecked")
+            V value = (V) result[0];
+            return value;
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new CompletionException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    void addRowListener(String fileName, RowListener listener) {
+        call(() -> rowListeners.computeIfAbsent(fileName, f -> new ArrayList<>()).add(listener));
+    }
+
+    void removeRowListener(String fileName, RowListener listener) {
+        call(() -> rowListeners.getOrDefault(fileName, new ArrayList<>()).remove(listener));
+    }
+
+    // ROOMS
+    List<Room> rooms() {
+        return call(() -> Collections.unmodifiableList(DataManager.getRooms()));
+    }
+
+    Room findRoom(String roomId) {
+        return call(() -> DataManager.findRoom(roomId));
+    }
+
+    // Rooms of the given type and bed (null matches any) that are free for the whole stay
+    List<Room> freeRooms(RoomType type, BedType bed, Date in, Date out) {
+        return call(() -> {
+            checkDates(in, out);
+            return DataManager.findFreeRooms(type, bed, in, out);
+        });
+    }
+
+    CompletableFuture<Void> addRoom(Room room) {
+        return call(() -> insert(DataManager.getRooms(), room, ROOMS));
+    }
+
+    CompletableFuture<Void> updateRoom(int row, Room room) {
+        return call(() -> update(DataManager.getRooms(), row, room, ROOMS));
+    }
+
+    CompletableFuture<Void> deleteRoom(int row) {
+        return call(() -> delete(DataManager.getRooms(), row, ROOMS));
+    }
+
+    int roomRow(String roomId) {
+        return call(() -> rowOf(DataManager.getRooms(), roomId, Room::getRoomId));
+    }
+
+    // CUSTOMERS
+    List<Customer> customers() {
+        return call(() -> Collections.unmodifiableList(DataManager.getCust()));
+    }
+
+    Customer findCustomer(String customerId) {
+        return call(() -> DataManager.findCustomer(customerId));
+    }
+
+    // The room and guest a reservation refers to, joined by surrogate key; null once deleted
+    Room roomOf(Reservation r) {
+        return call(() -> DataManager.roomOf(r));
+    }
+
+    Customer guestOf(Reservation r) {
+        return call(() -> DataManager.guestOf(r));
+    }
+
+    CompletableFuture<Void> addCustomer(Customer customer) {
+        return call(() -> insert(DataManager.getCust(), customer, CUSTOMERS));
+    }
+
+    CompletableFuture<Void> updateCustomer(int row, Customer customer) {
+        return call(() -> update(DataManager.getCust(), row, customer, CUSTOMERS));
+    }
+
+    CompletableFuture<Void> deleteCustomer(int row) {
+        return call(() -> delete(DataManager.getCust(), row, CUSTOMERS));
+    }
+
+    int customerRow(String customerId) {
+        return call(() -> rowOf(DataManager.getCust(), customerId, Customer::getCustomerId));
+    }
+
+    // RESERVATIONS
+    List<Reservation> reservations() {
+        return call(() -> Collections.unmodifiableList(DataManager.getReservations()));
+    }
+
+    Reservation findReservation(String resId) {
+        return call(() -> DataManager.findReservation(resId));
+    }
+
+    boolean isAvailable(String roomId, Date in, Date out) {
+        return call(() -> {
+            checkDates(in, out);
+            return DataManager.isAvailable(roomId, in, out);
+        });
+    }
+
+    // What a stay in the room costs at the configured rates
+    int quote(String roomId, Date in, Date out) {
+        checkDates(in, out);
+        Room room = call(() -> DataManager.findRoom(roomId));
+        if (room == null) throw new InvalidRequestException("Unknown room " + roomId + ".");
+        return Pricing.get().quote(room, in, out);
+    }
+
+    // Every matching room free for the whole stay, with its price for it
+    Map<Room, Integer> quoteFreeRooms(RoomType type, BedType bed, Date in, Date out) {
+        Pricing pricing = Pricing.get();
+        Map<Room, Integer> quotes = new LinkedHashMap<>();
+        for (Room room : freeRooms(type, bed, in, out)) quotes.put(room, pricing.quote(room, in, out));
+        return quotes;
+    }
+
+    // Occupancy, ADR, RevPAR and revenue by room type and bed for the nights from .. to - 1
+    Analytics.Kpi kpi(Date from, Date to) {
+        checkDates(from, to);
+        return call(() -> DataManager.analytics().kpi(EntityCodec.toEpochDay(from), EntityCodec.toEpochDay(to)));
+    }
+
+    // Throws InvalidRequestException for unknown rooms, empty stays and double bookings.
+    // The room's nights are claimed under that room's lock before the row is written, so the
+    // availability check and the booking are one step. Only the append itself runs on the EDT,
+    // which lets bookings for different rooms from several threads check and claim in parallel.
+    // The EDT may rebuild the calendars from the store in between (a reload, the monthly roll-over),
+    // and the new ones know nothing of claims not yet written, so the claim is made again there
+    CompletableFuture<Void> book(Reservation booking) {
+        checkDates(booking.getCheckIn(), booking.getCheckOut());
+        AvailabilityIndex[] claimed = {availability()};
+        if (!claimed[0].claim(booking, null)) throw alreadyBooked(booking);
+        try {
+            return call(() -> {
+                checkRoom(booking);
+                AvailabilityIndex current = DataManager.availability();
+                if (current != claimed[0]) {
+                    claimed[0].release(booking, null);
+                    claimed[0] = current;
+                    if (!current.claim(booking, null)) throw alreadyBooked(booking);
+                }
+                return insert(DataManager.getReservations(), booking, RESERVATIONS);
+            });
+        } catch (RuntimeException e) {
+            claimed[0].release(booking, null);
+            throw e;
+        }
+    }
+
+    CompletableFuture<Void> updateBooking(int row, Reservation booking) {
+        return call(() -> {
+            checkRoom(booking);
+            checkDates(booking.getCheckIn(), booking.getCheckOut());
+            List<Reservation> all = DataManager.getReservations();
+            Reservation old = all.get(row);
+            AvailabilityIndex index = DataManager.availability();
+            if (!index.claim(booking, old)) throw alreadyBooked(booking);
+            try {
+                return update(all, row, booking, RESERVATIONS);
+            } catch (RuntimeException e) {
+                index.release(booking, old);
+                throw e;
+            }
+        });
+    }
+
+    CompletableFuture<Void> cancelBooking(int row) {
+        return call(() -> delete(DataManager.getReservations(), row, RESERVATIONS));
+    }
+
+    int reservationRow(String resId) {
+        return call(() -> DataManager.indexOfReservation(resId));
+    }
+
+    private AvailabilityIndex availability() {
+        AvailabilityIndex index = DataManager.builtAvailability();
+        return index != null ? index : call(DataManager::availability);
+    }
+
+    private static void checkRoom(Reservation r) {
+        if (DataManager.roomOf(r) == null) throw new InvalidRequestException("Unknown room " + r.getRoomId() + ".");
+    }
+
+    private static InvalidRequestException alreadyBooked(Reservation booking) {
+        return new InvalidRequestException("Room " + booking.getRoomId() + " is already booked for those dates.");
+    }
+
+    static void checkDates(Date in, Date out) {
+        if (in == null || out == null || EntityCodec.toEpochDay(out) <= EntityCodec.toEpochDay(in)) {
+            throw new InvalidRequestException("Check-out must be after check-in.");
+        }
+    }
+
+    // BULK IMPORT
+    // Commits one batch of parsed rows. Rows clashing with existing data or with earlier rows are
+    // rejected one by one (reason keyed by batch position); the rest go to disk in a single write.
+    // Imported reservations must name a stored room and customer
+    ImportedBatch importBatch(String fileName, List<?> batch) {
+        return call(() -> {
+            Map<Integer, String> rejected = new TreeMap<>();
+            List<Object> accepted = new ArrayList<>(batch.size());
+            Set<String> ids = new HashSet<>();
+            AvailabilityIndex index = fileName.equals(RESERVATIONS) ? DataManager.availability() : null;
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    Object item = index != null ? withReferences((Reservation) batch.get(i)) : batch.get(i);
+                    String id = idOf(item);
+                    if (!ids.add(id) || find(fileName, id) != null) {
+                        throw new DuplicateIdException("ID " + id + " already exists.");
+                    }
+                    if (index != null && !index.claim((Reservation) item, null)) throw alreadyBooked((Reservation) item);
+                    accepted.add(item);
+                } catch (InvalidRequestException e) {
+                    rejected.put(i, e.getMessage());
+                }
+            }
+
+            List<Object> list = liveList(fileName);
+            int first = list.size();
+            CompletableFuture<Void> written;
+            try {
+                written = DataManager.insertAll(list, accepted, fileName);
+            } catch (RuntimeException e) {
+                if (index != null) for (Object item : accepted) index.release((Reservation) item, null);
+                throw e;
+            }
+            if (!accepted.isEmpty()) fireRows(fileName, TableModelEvent.INSERT, first, list.size() - 1);
+            return new ImportedBatch(rejected, written);
+        });
+    }
+
+    // What importBatch did with a batch: the rows it turned down, and the write of the rest. If the
+    // write fails the rows are undone again, claims included, by DataManager's revert
+    static final class ImportedBatch {
+        final Map<Integer, String> rejected;
+        final CompletableFuture<Void> written;
+
+        ImportedBatch(Map<Integer, String> rejected, CompletableFuture<Void> written) {
+            this.rejected = rejected;
+            this.written = written;
+        }
+    }
+
+    // Writes a fresh snapshot once an import is done, so the journal does not replay it all on load
+    void finishImport(String fileName) {
+        call(() -> DataManager.saveAsync(liveList(fileName), fileName)).join();
+    }
+
+    private static Reservation withReferences(Reservation r) {
+        checkRoom(r);
+        if (DataManager.guestOf(r) == null) throw new InvalidRequestException("Unknown guest " + r.getCustId() + ".");
+        return r;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> liveList(String fileName) {
+        switch (fileName) {
+            case ROOMS: return (List<Object>) (List<?>) DataManager.getRooms();
+            case CUSTOMERS: return (List<Object>) (List<?>) DataManager.getCust();
+            default: return (List<Object>) (List<?>) DataManager.getReservations();
+        }
+    }
+
+    private static String idOf(Object item) {
+        if (item instanceof Room) return ((Room) item).getRoomId();
+        if (item instanceof Customer) return ((Customer) item).getCustomerId();
+        return ((Reservation) item).getResId();
+    }
+
+    private static Object find(String fileName, String id) {
+        switch (fileName) {
+            case ROOMS: return DataManager.findRoom(id);
+            case CUSTOMERS: return DataManager.findCustomer(id);
+            default: return DataManager.findReservation(id);
+        }
+    }
+
+    // EDITS
+    // Each returns the write's future: the edit is already in the list, the future says whether it
+    // reached the disk
+    private <T> CompletableFuture<Void> insert(List<T> list, T item, String fileName) {
+        CompletableFuture<Void> written = DataManager.insert(list, item, fileName);
+        int row = list.size() - 1;
+        fireRows(fileName, TableModelEvent.INSERT, row, row);
+        return written;
+    }
+
+    private <T> CompletableFuture<Void> update(List<T> list, int row, T item, String fileName) {
+        CompletableFuture<Void> written = DataManager.update(list, row, item, fileName);
+        fireRows(fileName, TableModelEvent.UPDATE, row, row);
+        return written;
+    }
+
+    private <T> CompletableFuture<Void> delete(List<T> list, int row, String fileName) {
+        CompletableFuture<Void> written = DataManager.delete(list, row, fileName);
+        fireRows(fileName, TableModelEvent.DELETE, row, row);
+        return written;
+    }
+
+    // Timed as "refresh": the tables updating themselves for the change
+    private void fireRows(String fileName, int type, int first, int last) {
+        Metrics.Span span = Metrics.start("refresh", fileName);
+        for (RowListener listener : new ArrayList<>(rowListeners.getOrDefault(fileName, Collections.emptyList()))) {
+            listener.rowsChanged(type, first, last);
+        }
+        span.end(0);
+    }
+
+    private static <T> int rowOf(List<T> list, String id, Function<T, String> key) {
+        for (int i = 0; i < list.size(); i++) {
+            if (Objects.equals(key.apply(list.get(i)), id)) return i;
+        }
+        return -1;
+    }
+}
+
+// Thrown when a request breaks a booking rule; the message is meant for the user
+class InvalidRequestException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+}
+
+// Minimal JSON for the HTTP API: flat objects of strings and numbers, which is all the entities need
+final class Json {
+    private Json() {}
+
+    static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // Field values come back as strings (numbers in their literal form, null for JSON null)
+    static Map<String, String> parseObject(String text) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        int[] pos = {0};
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') {
+            pos[0]++;
+        } else {
+            do {
+                String key = string(text, pos);
+                expect(text, pos, ':');
+                fields.put(key, peek(text, pos) == '"' ? string(text, pos) : literal(text, pos));
+            } while (next(text, pos) == ',');
+            if (text.charAt(pos[0] - 1) != '}') throw new InvalidRequestException("Malformed JSON.");
+        }
+        if (peek(text, pos) != 0) throw new InvalidRequestException("Malformed JSON.");
+        return fields;
+    }
+
+    private static char peek(String text, int[] pos) {
+        while (pos[0] < text.length() && Character.isWhitespace(text.charAt(pos[0]))) pos[0]++;
+        return pos[0] < text.length() ? text.charAt(pos[0]) : 0;
+    }
+
+    private static char next(String text, int[] pos) {
+        char c = peek(text, pos);
+        if (c == 0) throw new InvalidRequestException("Malformed JSON.");
+        pos[0]++;
+        return c;
+    }
+
+    private static void expect(String text, int[] pos, char c) {
+        if (next(text, pos) != c) throw new InvalidRequestException("Malformed JSON: expected '" + c + "'.");
+    }
+
+    private static String string(String text, int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (pos[0] >= text.length()) throw new InvalidRequestException("Malformed JSON: unterminated string.");
+            char c = text.charAt(pos[0]++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos[0] >= text.length()) throw new InvalidRequestException("Malformed JSON: bad escape.");
+            char e = text.charAt(pos[0]++);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (pos[0] + 4 > text.length()) throw new InvalidRequestException("Malformed JSON: bad escape.");
+                    sb.append((char) Integer.parseInt(text.substring(pos[0], pos[0] + 4), 16));
+                    pos[0] += 4;
+                    break;
+                default: sb.append(e);
+            }
+        }
+    }
+
+    private static String literal(String text, int[] pos) {
+        int start = pos[0];
+        while (pos[0] < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos[0])) < 0) pos[0]++;
+        String token = text.substring(start, pos[0]);
+        if (token.isEmpty() || token.charAt(0) == '{' || token.charAt(0) == '[') {
+            throw new InvalidRequestException("Malformed JSON: only flat objects are supported.");
+        }
+        return token.equals("null") ? null : token;
+    }
+}
+
+// Entity fields by name, shared by the HTTP API and the bulk importer. Bad values come back as
+// InvalidRequestException with a message that says which field was wrong
+final class EntityFields {
+    private EntityFields() {}
+
+    static Room room(Map<String, String> fields) {
+        return new Room(required(fields, "id"), enumValue(RoomType.class, required(fields, "type")),
+                enumValue(BedType.class, required(fields, "bed")), number(required(fields, "price")));
+    }
+
+    static Customer customer(Map<String, String> fields) {
+        return new Customer(required(fields, "id"), fields.get("name"), fields.get("phone"), fields.get("email"));
+    }
+
+    // guest: the customer ID the reservation stores
+    static Reservation reservation(Map<String, String> fields, String guest) {
+        return new Reservation(required(fields, "id"), required(fields, "room"), guest,
+                date(fields.get("checkIn")), date(fields.get("checkOut")), number(required(fields, "total")));
+    }
+
+    static String required(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if (value == null || value.isEmpty()) throw new InvalidRequestException("Missing field " + name + ".");
+        return value;
+    }
+
+    static int number(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Not a whole number: " + value + ".");
+        }
+    }
+
+    static <E extends Enum<E>> E enumValue(Class<E> type, String value) {
+        if (value == null || value.isEmpty()) return null;
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequestException("Unknown " + type.getSimpleName() + " " + value + ".");
+        }
+    }
+
+    static Date date(String value) {
+        if (value == null) throw new InvalidRequestException("Missing date.");
+        try {
+            return EntityCodec.fromEpochDay((int) LocalDate.parse(value.trim()).toEpochDay());
+        } catch (DateTimeException e) {
+            throw new InvalidRequestException("Not a date (yyyy-MM-dd): " + value + ".");
+        }
+    }
+
+    static String day(Date date) {
+        return date == null ? null : LocalDate.ofEpochDay(EntityCodec.toEpochDay(date)).toString();
+    }
+
+    // The customer ID out of a guest as older files stored it ("ID - Name")
+    static String guestId(String guest) {
+        int cut = guest == null ? -1 : guest.indexOf(" - ");
+        return cut >= 0 ? guest.substring(0, cut) : guest;
+    }
+}
+
+// HTTP ENDPOINT
+// JSON over the JDK's built-in HTTP server, backed by the same HotelService as the forms:
+//   GET    /rooms[?type=&bed=&from=&to=]     all rooms, or the ones free from..to
+//   GET    /customers, /reservations         paged with ?offset=&limit=
+//   GET    /{rooms|customers|reservations}/{id}
+//   POST   /{rooms|customers|reservations}   create from a JSON body
+//   PUT    /{rooms|customers|reservations}/{id}
+//   DELETE /{rooms|customers|reservations}/{id}
+//   GET    /availability?room=&from=&to=
+//   GET    /quotes?from=&to=[&type=&bed=]    every free room with its price for the stay
+//   GET    /export?format=csv|json|jsonl     every reservation, streamed
+//   GET    /reports/revenue-by-room, /reports/revenue-by-type, /reports/occupancy?from=&to=
+//   GET    /reports/kpi?from=&to=            occupancy, ADR, RevPAR, revenue by type and bed
+// Dates are yyyy-MM-dd; a reservation's guest is the customer ID. A reservation sent without a
+// total is priced from the room's rates. There is no authentication, so the server only listens on
+// the loopback interface unless it is given another address explicitly.
+class HotelApi implements HttpHandler {
+    private static final int DEFAULT_LIMIT = 100, MAX_LIMIT = 10_000;
+
+    private final HotelService service = HotelService.get();
+
+    static HttpServer start(InetAddress address, int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/", new HotelApi());
+        server.setExecutor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+        server.start();
+        return server;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            Map<String, String> json = method.equals("POST") || method.equals("PUT")
+                    ? Json.parseObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8))
+                    : null;
+            if (path[0].equals("export")) {
+                export(exchange, method, query);
+                return;
+            }
+            body = path[0].equals("reservations") && path.length == 1 && method.equals("POST")
+                    ? book(json)
+                    : path[0].equals("reports")
+                    ? report(method, path, query)
+                    : HotelService.call(() -> route(method, path, query, json));
+            if (method.equals("POST")) status = 201;
+        } catch (NoSuchElementException e) {
+            status = 404;
+            body = error(e.getMessage());
+        } catch (DuplicateIdException e) {
+            status = 409;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException | DateTimeException e) {
+            status = 400;
+            body = error(e instanceof InvalidRequestException ? e.getMessage() : "Bad request: " + e.getMessage());
+        } catch (UnsupportedOperationException e) {
+            status = 405;
+            body = error(e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("HTTP Error: " + e);
+            status = 500;
+            body = error("Internal error");
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Runs on the event dispatch thread, so a lookup and the edit that follows it see the same rows
+    private String route(String method, String[] path, Map<String, String> query, Map<String, String> json) {
+        String id = path.length > 1 ? path[1] : null;
+        switch (path[0]) {
+            case "rooms":
+                if (method.equals("GET") && id == null && query.containsKey("from")) {
+                    return array(service.freeRooms(EntityFields.enumValue(RoomType.class, query.get("type")),
+                            EntityFields.enumValue(BedType.class, query.get("bed")),
+                            EntityFields.date(query.get("from")), EntityFields.date(query.get("to"))), HotelApi::room);
+                }
+                return resource(method, id, query, json, service.rooms(), service::findRoom, HotelApi::room,
+                        () -> service.addRoom(EntityFields.room(json)), row -> service.updateRoom(row, EntityFields.room(json)),
+                        service::deleteRoom, service::roomRow);
+            case "customers":
+                return resource(method, id, query, json, service.customers(), service::findCustomer, HotelApi::customer,
+                        () -> service.addCustomer(EntityFields.customer(json)),
+                        row -> service.updateCustomer(row, EntityFields.customer(json)),
+                        service::deleteCustomer, service::customerRow);
+            case "reservations":
+                return resource(method, id, query, json, service.reservations(), service::findReservation, HotelApi::reservation,
+                        () -> service.book(reservation(json)), row -> service.updateBooking(row, reservation(json)),
+                        service::cancelBooking, service::reservationRow);
+            case "availability":
+                if (!method.equals("GET")) throw new UnsupportedOperationException("Use GET");
+                String room = EntityFields.required(query, "room");
+                if (service.findRoom(room) == null) throw new NoSuchElementException("No room " + room);
+                return "{\"room\":" + Json.quote(room) + ",\"available\":"
+                        + service.isAvailable(room, EntityFields.date(query.get("from")), EntityFields.date(query.get("to"))) + "}";
+            case "quotes": {
+                if (!method.equals("GET")) throw new UnsupportedOperationException("Use GET");
+                StringJoiner out = new StringJoiner(",", "[", "]");
+                service.quoteFreeRooms(EntityFields.enumValue(RoomType.class, query.get("type")),
+                        EntityFields.enumValue(BedType.class, query.get("bed")),
+                        EntityFields.date(query.get("from")), EntityFields.date(query.get("to")))
+                        .forEach((r, total) -> {
+                            String fields = room(r);
+                            out.add(fields.substring(0, fields.length() - 1) + ",\"total\":" + total + "}");
+                        });
+                return out.toString();
+            }
+            default:
+                throw new NoSuchElementException("No such resource: /" + String.join("/", path));
+        }
+    }
+
+    // New bookings skip the EDT for the availability check, so requests for different rooms overlap
+    private String book(Map<String, String> json) {
+        Reservation booking = reservation(json);
+        service.book(booking);
+        return reservation(booking);
+    }
+
+    // Exports and reports read res.dat themselves, so they stay off the event dispatch thread
+    private static void export(HttpExchange exchange, String method, Map<String, String> query) throws IOException {
+        if (!method.equals("GET")) throw new UnsupportedOperationException("Use GET");
+        String format = ReservationReports.checkFormat(query.getOrDefault("format", "csv"));
+        exchange.getResponseHeaders().set("Content-Type", format.equals("csv") ? "text/csv; charset=utf-8"
+                : format.equals("json") ? "application/json; charset=utf-8" : "application/x-ndjson; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0); // chunked: the length is not known up front
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            ReservationReports.export(format, out);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("HTTP Error: export stopped: " + e.getMessage());
+            exchange.close();
+        }
+    }
+
+    private String report(String method, String[] path, Map<String, String> query) {
+        if (!method.equals("GET")) throw new UnsupportedOperationException("Use GET");
+        String name = path.length > 1 ? path[1] : "";
+        switch (name) {
+            case "revenue-by-room":
+                return totals(ReservationReports.revenueByRoom());
+            case "revenue-by-type":
+                return totals(ReservationReports.revenueByRoomType());
+            case "kpi": {
+                Analytics.Kpi kpi = service.kpi(EntityFields.date(query.get("from")), EntityFields.date(query.get("to")));
+                Map<String, Long> byType = new LinkedHashMap<>(), byBed = new LinkedHashMap<>();
+                kpi.revenueByType().forEach((type, total) -> byType.put(type.name(), total));
+                kpi.revenueByBed().forEach((bed, total) -> byBed.put(bed.name(), total));
+                return String.format(Locale.ROOT, "{\"nights\":%d,\"roomNights\":%d,\"revenue\":%d,\"occupancy\":%.4f,"
+                                + "\"adr\":%.2f,\"revPar\":%.2f,\"revenueByType\":%s,\"revenueByBed\":%s}",
+                        kpi.nightsSold(), kpi.roomNights(), kpi.revenue(), kpi.occupancy(), kpi.adr(), kpi.revPar(),
+                        totals(byType), totals(byBed));
+            }
+            case "occupancy": {
+                LocalDate from = LocalDate.ofEpochDay(EntityCodec.toEpochDay(EntityFields.date(query.get("from"))));
+                LocalDate to = LocalDate.ofEpochDay(EntityCodec.toEpochDay(EntityFields.date(query.get("to"))));
+                StringJoiner out = new StringJoiner(",", "{", "}");
+                ReservationReports.occupancyByDay(from, to).forEach((day, rooms) -> out.add(Json.quote(day.toString()) + ":" + rooms));
+                return out.toString();
+            }
+            default:
+                throw new NoSuchElementException("No such report: " + name);
+        }
+    }
+
+    private static String totals(Map<String, Long> totals) {
+        StringJoiner out = new StringJoiner(",", "{", "}");
+        totals.forEach((key, total) -> out.add(Json.quote(key) + ":" + total));
+        return out.toString();
+    }
+
+    private <T> String resource(String method, String id, Map<String, String> query, Map<String, String> json,
+                                List<T> all, Function<String, T> find, Function<T, String> toJson,
+                                Runnable create, IntConsumer update, IntConsumer delete, ToIntFunction<String> rowOf) {
+        switch (method) {
+            case "GET":
+                if (id == null) {
+                    int offset = Math.max(0, EntityFields.number(query.getOrDefault("offset", "0")));
+                    int limit = Math.min(MAX_LIMIT,
+                            Math.max(0, EntityFields.number(query.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT)))));
+                    return array(all.subList(Math.min(offset, all.size()), Math.min(all.size(), offset + limit)), toJson);
+                }
+                T item = find.apply(id);
+                if (item == null) throw new NoSuchElementException("No record " + id);
+                return toJson.apply(item);
+            case "POST":
+                if (id != null) throw new UnsupportedOperationException("POST to the collection");
+                create.run();
+                return toJson.apply(all.get(all.size() - 1));
+            case "PUT":
+            case "DELETE": {
+                if (id == null) throw new UnsupportedOperationException(method + " needs an ID");
+                int row = rowOf.applyAsInt(id);
+                if (row < 0) throw new NoSuchElementException("No record " + id);
+                if (method.equals("DELETE")) {
+                    delete.accept(row);
+                    return "{\"deleted\":" + Json.quote(id) + "}";
+                }
+                update.accept(row);
+                return toJson.apply(all.get(row));
+            }
+            default:
+                throw new UnsupportedOperationException("Unsupported method " + method);
+        }
+    }
+
+    // ENTITY <-> JSON
+    private static String room(Room r) {
+        return "{\"id\":" + Json.quote(r.getRoomId()) + ",\"type\":" + Json.quote(String.valueOf(r.getType()))
+                + ",\"bed\":" + Json.quote(String.valueOf(r.getBed())) + ",\"price\":" + r.getPrice() + "}";
+    }
+
+    private static String customer(Customer c) {
+        return "{\"id\":" + Json.quote(c.getCustomerId()) + ",\"name\":" + Json.quote(c.getName())
+                + ",\"phone\":" + Json.quote(c.getPhone()) + ",\"email\":" + Json.quote(c.getEmail()) + "}";
+    }
+
+    static String reservation(Reservation r) {
+        return "{\"id\":" + Json.quote(r.getResId()) + ",\"room\":" + Json.quote(r.getRoomId())
+                + ",\"guest\":" + Json.quote(r.getCustId())
+                + ",\"checkIn\":" + Json.quote(EntityFields.day(r.getCheckIn()))
+                + ",\"checkOut\":" + Json.quote(EntityFields.day(r.getCheckOut()))
+                + ",\"total\":" + r.getTotal() + "}";
+    }
+
+    // The guest must be a stored customer; a reservation keeps only its ID
+    private Reservation reservation(Map<String, String> json) {
+        String guestId = EntityFields.required(json, "guest");
+        Customer guest = service.findCustomer(guestId);
+        if (guest == null) throw new InvalidRequestException("Unknown guest " + guestId + ".");
+        if (!json.containsKey("total")) {
+            json.put("total", String.valueOf(service.quote(EntityFields.required(json, "room"),
+                    EntityFields.date(json.get("checkIn")), EntityFields.date(json.get("checkOut")))));
+        }
+        return EntityFields.reservation(json, guest.getCustomerId());
+    }
+
+    // HELPERS
+    private static <T> String array(List<T> items, Function<T, String> toJson) {
+        StringJoiner out = new StringJoiner(",", "[", "]");
+        for (T item : items) out.add(toJson.apply(item));
+        return out.toString();
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + Json.quote(message) + "}";
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> params = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+}
+
+// BULK IMPORT
+// Streams a CSV file (first line: field names, as in the HTTP API) or a JSONL file into rooms,
+// customers or reservations, one record per line. Chunks of lines are parsed and validated in
+// parallel, on virtual threads where the JDK has them, and each chunk is committed in order through
+// HotelService as one batch with a single journal write. The snapshot is rewritten once at the end.
+class BulkImporter {
+    private static final int BATCH = 10_000;
+    private static final int SHOW_REJECTS = 20;
+
+    static final class Report {
+        long read, imported, nanos;
+        final SortedMap<Long, String> rejects = new TreeMap<>(); // reason by line number
+
+        @Override
+        public String toString() {
+            double seconds = nanos / 1e9;
+            StringBuilder sb = new StringBuilder(String.format(Locale.ROOT,
+                    "Imported %,d of %,d rows in %.2f s (%,.0f rows/s), %,d rejected",
+                    imported, read, seconds, read / Math.max(seconds, 1e-9), rejects.size()));
+            rejects.entrySet().stream().limit(SHOW_REJECTS).forEach(e ->
+                    sb.append(System.lineSeparator()).append("  line ").append(e.getKey()).append(": ").append(e.getValue()));
+            if (rejects.size() > SHOW_REJECTS) sb.append(System.lineSeparator()).append("  ...");
+            return sb.toString();
+        }
+    }
+
+    // Lines parsed off the reader thread: valid rows with their line numbers, and the rows that failed
+    private static final class Chunk {
+        final List<Object> items = new ArrayList<>();
+        final List<Long> lines = new ArrayList<>();
+        final Map<Long, String> rejects = new HashMap<>();
+    }
+
+    // A committed chunk whose write has not been checked yet
+    private static final class Committed {
+        final Chunk chunk;
+        final HotelService.ImportedBatch batch;
+
+        Committed(Chunk chunk, HotelService.ImportedBatch batch) {
+            this.chunk = chunk;
+            this.batch = batch;
+        }
+    }
+
+    private final String fileName;
+    private final Function<Map<String, String>, Object> parser;
+    private final HotelService service = HotelService.get();
+
+    private BulkImporter(String kind) {
+        switch (kind) {
+            case "rooms":
+                fileName = HotelService.ROOMS;
+                parser = EntityFields::room;
+                break;
+            case "customers":
+                fileName = HotelService.CUSTOMERS;
+                parser = EntityFields::customer;
+                break;
+            case "reservations":
+                fileName = HotelService.RESERVATIONS;
+                parser = fields -> {
+                    Reservation r = EntityFields.reservation(fields, EntityFields.required(fields, "guest"));
+                    HotelService.checkDates(r.getCheckIn(), r.getCheckOut());
+                    return r;
+                };
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown import kind " + kind + " (rooms, customers, reservations)");
+        }
+    }
+
+    // Rejected rows are also written next to the input as <file>.rejects.txt
+    static Report run(String kind, Path input) throws IOException {
+        BulkImporter importer = new BulkImporter(kind);
+        if (!Files.isReadable(input)) throw new FileNotFoundException("Cannot read " + input);
+        Report report = importer.importFile(input);
+        if (!report.rejects.isEmpty()) {
+            List<String> lines = new ArrayList<>(report.rejects.size());
+            report.rejects.forEach((line, reason) -> lines.add("line " + line + ": " + reason));
+            Files.write(Paths.get(input + ".rejects.txt"), lines, StandardCharsets.UTF_8);
+        }
+        return report;
+    }
+
+    private Report importFile(Path input) throws IOException {
+        Report report = new Report();
+        long start = System.nanoTime();
+        boolean csv = !input.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".jsonl");
+        int window = Runtime.getRuntime().availableProcessors() * 2; // chunks parsed ahead of the committer
+        ExecutorService workers = workers();
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        Deque<Committed> writing = new ArrayDeque<>();
+
+        try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            long lineNo = 0;
+            String[] header = null;
+            if (csv) {
+                String first = in.readLine();
+                lineNo++;
+                if (first == null) return report;
+                header = splitCsv(first);
+                for (int i = 0; i < header.length; i++) header[i] = header[i].trim();
+            }
+
+            List<String> lines = new ArrayList<>(BATCH);
+            long firstLine = lineNo + 1;
+            for (String line; (line = in.readLine()) != null; ) {
+                lineNo++;
+                lines.add(line);
+                if (lines.size() == BATCH) {
+                    inFlight.add(submit(workers, lines, firstLine, header));
+                    lines = new ArrayList<>(BATCH);
+                    firstLine = lineNo + 1;
+                    if (inFlight.size() >= window) commit(inFlight.poll(), writing, report);
+                }
+            }
+            if (!lines.isEmpty()) inFlight.add(submit(workers, lines, firstLine, header));
+            while (!inFlight.isEmpty()) commit(inFlight.poll(), writing, report);
+        } finally {
+            workers.shutdownNow();
+        }
+        while (!writing.isEmpty()) settle(writing.poll(), report);
+
+        try {
+            service.finishImport(fileName);
+        } catch (CompletionException e) {
+            // the rows are safe in the journal; only the compaction is missing
+            System.err.println("Persistence Error: " + (e.getCause() != null ? e.getCause() : e).getMessage());
+        }
+        report.nanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private Future<Chunk> submit(ExecutorService workers, List<String> lines, long firstLine, String[] header) {
+        return workers.submit(() -> {
+            Chunk chunk = new Chunk();
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                long lineNo = firstLine + i;
+                if (line.isBlank()) continue;
+                try {
+                    chunk.items.add(parser.apply(header != null ? csvRecord(header, line) : Json.parseObject(line)));
+                    chunk.lines.add(lineNo);
+                } catch (IllegalArgumentException e) {
+                    chunk.rejects.put(lineNo, e.getMessage());
+                }
+            }
+            return chunk;
+        });
+    }
+
+    private void commit(Future<Chunk> pending, Deque<Committed> writing, Report report) {
+        Chunk chunk;
+        try {
+            chunk = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+        report.read += chunk.items.size() + chunk.rejects.size();
+        report.rejects.putAll(chunk.rejects);
+        HotelService.ImportedBatch batch = service.importBatch(fileName, chunk.items);
+        batch.rejected.forEach((row, reason) -> report.rejects.put(chunk.lines.get(row), reason));
+        writing.add(new Committed(chunk, batch));
+        while (!writing.isEmpty() && writing.peek().batch.written.isDone()) settle(writing.poll(), report);
+    }
+
+    // Counts a chunk's rows once they are on disk. If the write failed they were undone, so each one
+    // is reported against the lines the write covered
+    private static void settle(Committed committed, Report report) {
+        Chunk chunk = committed.chunk;
+        Map<Integer, String> rejected = committed.batch.rejected;
+        try {
+            committed.batch.written.join();
+            report.imported += chunk.items.size() - rejected.size();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            String reason = "Lines " + chunk.lines.get(0) + "-" + chunk.lines.get(chunk.lines.size() - 1)
+                    + " were not written: " + cause.getMessage();
+            for (int row = 0; row < chunk.items.size(); row++) {
+                if (!rejected.containsKey(row)) report.rejects.put(chunk.lines.get(row), reason);
+            }
+        }
+    }
+
+    // Virtual threads when running on a JDK that has them, otherwise one platform thread per core
+    private static ExecutorService workers() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    private static Map<String, String> csvRecord(String[] header, String line) {
+        String[] values = splitCsv(line);
+        if (values.length > header.length) throw new InvalidRequestException("More values than columns.");
+        Map<String, String> fields = new HashMap<>(header.length * 2);
+        for (int i = 0; i < values.length; i++) fields.put(header[i], values[i]);
+        return fields;
+    }
+
+    // Comma-separated values; a field in double quotes may contain commas and "" for a quote
+    static String[] splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
 }
 
-// DATA PERSISTENCE with serialization
-class DataManager {
-    private static final String ROOM_FILE = "rooms.dat";
-    private static final String CUST_FILE = "cust.dat";
-    private static final String RES_FILE = "res.dat";
+// EXPORT AND REPORTS
+// Work over DataManager.streamReservations(), one reservation at a time, so the cost in memory is
+// the size of the answer (rooms, days) and never the size of the reservation history. Exports use
+// the field names of the HTTP API and the importer, so an exported file can be imported again.
+// Call off the event dispatch thread; the room lookup for the by-type report goes through HotelService.
+final class ReservationReports {
+    static final String[] FORMATS = {"csv", "json", "jsonl"};
+    private static final String CSV_HEADER = "id,room,guest,checkIn,checkOut,total";
 
-    // Generic save method for serializable objects 
-    public static void save(Object obj, String fileName) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(fileName))) {
-            oos.writeObject(obj);
-        } catch (Exception e) {
-            System.err.println("Persistence Error: " + e.getMessage());
+    private ReservationReports() {}
+
+    // Returns the number of reservations written
+    static long export(String format, Writer out) throws IOException {
+        long count = 0;
+        try (Stream<Reservation> all = DataManager.streamReservations()) {
+            Iterator<Reservation> it = all.iterator();
+            if (format.equals("csv")) out.write(CSV_HEADER + "\n");
+            if (format.equals("json")) out.write("[");
+            while (it.hasNext()) {
+                Reservation r = it.next();
+                switch (format) {
+                    case "csv":
+                        out.write(csvField(r.getResId()) + "," + csvField(r.getRoomId()) + ","
+                                + csvField(r.getCustId()) + "," + EntityFields.day(r.getCheckIn())
+                                + "," + EntityFields.day(r.getCheckOut()) + "," + r.getTotal() + "\n");
+                        break;
+                    case "json":
+                        if (count > 0) out.write(",");
+                        out.write(HotelApi.reservation(r));
+                        break;
+                    default:
+                        out.write(HotelApi.reservation(r) + "\n");
+                }
+                count++;
+            }
+            if (format.equals("json")) out.write("]");
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+        out.flush();
+        return count;
     }
 
-    //Generic load method 
-    public static Object load(String fileName) {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(fileName))) {
-            return ois.readObject();
-        } catch (Exception e) {
-            return null; 
+    static String checkFormat(String format) {
+        String f = format == null ? "" : format.toLowerCase(Locale.ROOT);
+        if (!Arrays.asList(FORMATS).contains(f)) {
+            throw new InvalidRequestException("Unknown format " + format + ". Use csv, json or jsonl.");
         }
+        return f;
     }
 
-    @SuppressWarnings("unchecked")
-    public static ArrayList<Room> getRooms() {
-        ArrayList<Room> data = (ArrayList<Room>) load(ROOM_FILE);
-        return data != null ? data : new ArrayList<>();
+    // Room ID -> sum of totals, by room ID
+    static SortedMap<String, Long> revenueByRoom() {
+        SortedMap<String, Long> revenue = new TreeMap<>();
+        try (Stream<Reservation> all = DataManager.streamReservations()) {
+            all.forEach(r -> revenue.merge(r.getRoomId(), (long) r.getTotal(), Long::sum));
+        }
+        return revenue;
     }
 
-    @SuppressWarnings("unchecked")
-    public static ArrayList<Customer> getCust() {
-        ArrayList<Customer> data = (ArrayList<Customer>) load(CUST_FILE);
-        return data != null ? data : new ArrayList<>();
+    // Room type -> sum of totals; bookings for rooms that no longer exist are listed as "DELETED"
+    static Map<String, Long> revenueByRoomType() {
+        Map<String, RoomType> types = HotelService.call(() -> {
+            Map<String, RoomType> map = new HashMap<>();
+            for (Room room : DataManager.getRooms()) map.put(room.getRoomId(), room.getType());
+            return map;
+        });
+        Map<String, Long> revenue = new LinkedHashMap<>();
+        for (RoomType type : RoomType.values()) revenue.put(type.name(), 0L);
+        try (Stream<Reservation> all = DataManager.streamReservations()) {
+            all.forEach(r -> {
+                RoomType type = types.get(r.getRoomId());
+                revenue.merge(type == null ? "DELETED" : type.name(), (long) r.getTotal(), Long::sum);
+            });
+        }
+        return revenue;
     }
 
-    @SuppressWarnings("unchecked")
-    public static ArrayList<Reservation> getRes() {
-        ArrayList<Reservation> data = (ArrayList<Reservation>) load(RES_FILE);
-        return data != null ? data : new ArrayList<>();
+    // Night of from .. night before to -> rooms occupied that night; stays missing a date are skipped
+    static SortedMap<LocalDate, Integer> occupancyByDay(LocalDate from, LocalDate to) {
+        long first = from.toEpochDay();
+        int days = (int) (to.toEpochDay() - first);
+        if (days <= 0) throw new InvalidRequestException("Check-out must be after check-in.");
+        int[] occupied = new int[days];
+        try (Stream<Reservation> all = DataManager.streamReservations()) {
+            all.forEach(r -> {
+                if (r.getCheckIn() == null || r.getCheckOut() == null) return;
+                long in = Math.max(EntityCodec.toEpochDay(r.getCheckIn()) - first, 0);
+                long out = Math.min(EntityCodec.toEpochDay(r.getCheckOut()) - first, days);
+                for (long d = in; d < out; d++) occupied[(int) d]++;
+            });
+        }
+        SortedMap<LocalDate, Integer> byDay = new TreeMap<>();
+        for (int d = 0; d < days; d++) byDay.put(from.plusDays(d), occupied[d]);
+        return byDay;
+    }
+
+    private static String csvField(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
+
+// WRITE FAILURES
+// Edits show up at once and are written behind; when a write fails the user is told, since the
+// change on screen would be gone after a restart.
+final class WriteFailures {
+    private WriteFailures() {}
+
+    static void report(Component parent, CompletableFuture<?> write) {
+        write.whenComplete((ok, e) -> {
+            if (e == null) return;
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(parent,
+                    "Could not save to disk: " + cause.getMessage()
+                            + "\nThe change was undone; the list shows what is on disk.",
+                    "Save failed", JOptionPane.ERROR_MESSAGE));
+        });
+    }
+}
+
+// IMAGE CACHE
+// Every image asset is decoded once and shared by all windows. Loading is thread-safe, so the
+// startup pool decodes the backgrounds and icons while the splash shows. A missing file gives
+// null, which the panels and buttons draw as nothing, as ImageIcon did. Backgrounds are also kept
+// scaled to the sizes they are shown at, in the screen's pixel format, so a repaint is a plain
+// copy; the least recently used sizes are dropped once they take more than SCALED_BUDGET bytes.
+final class ImageCache {
+    private static final long SCALED_BUDGET = 64L << 20;
+    private static final Map<String, Optional<BufferedImage>> images = new ConcurrentHashMap<>();
+    private static final Map<String, Optional<ImageIcon>> icons = new ConcurrentHashMap<>();
+    private static final LinkedHashMap<String, BufferedImage> scaled = new LinkedHashMap<>(16, 0.75f, true);
+    private static long scaledBytes;
+
+    private ImageCache() {}
+
+    static BufferedImage image(String path) {
+        return images.computeIfAbsent(path, p -> {
+            try {
+                return Optional.ofNullable(ImageIO.read(new File(p)));
+            } catch (IOException e) {
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    // The image at exactly width x height, null if the asset is missing
+    static synchronized BufferedImage scaled(String path, int width, int height, GraphicsConfiguration gc) {
+        BufferedImage image = peek(path, width, height);
+        BufferedImage full = image(path);
+        if (image != null || full == null || width <= 0 || height <= 0) return image;
+
+        Metrics.Span span = Metrics.start("scale", path);
+        int transparency = full.getTransparency();
+        image = gc != null ? gc.createCompatibleImage(width, height, transparency) : new BufferedImage(width, height,
+                transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(full, 0, 0, width, height, null);
+        g.dispose();
+
+        scaled.put(path + "@" + width + "x" + height, image);
+        scaledBytes += bytes(image);
+        for (Iterator<BufferedImage> it = scaled.values().iterator(); scaledBytes > SCALED_BUDGET && it.hasNext(); ) {
+            BufferedImage eldest = it.next();
+            if (eldest == image) break;
+            scaledBytes -= bytes(eldest);
+            it.remove();
+        }
+        span.end(bytes(image));
+        return image;
+    }
+
+    // The scaled image if one of that size is cached; never scales
+    static synchronized BufferedImage peek(String path, int width, int height) {
+        return scaled.get(path + "@" + width + "x" + height);
+    }
+
+    private static long bytes(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+
+    // A size x size icon, smooth-scaled once; null if the asset is missing
+    static ImageIcon icon(String path, int size) {
+        return icons.computeIfAbsent(path + "@" + size, k -> {
+            BufferedImage full = image(path);
+            if (full == null) return Optional.empty();
+            BufferedImage scaled = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = scaled.createGraphics();
+            g.drawImage(full.getScaledInstance(size, size, Image.SCALE_SMOOTH), 0, 0, null);
+            g.dispose();
+            return Optional.of(new ImageIcon(scaled));
+        }).orElse(null);
     }
 }
 
 // CUSTOM UI COMPONENTS
 
 // JPanel that supports a background image 
+// The image is drawn at the panel's size from ImageCache. While a resize is under way the last
+// fit is stretched instead (fast, a little blocky) and the exact size is scaled once it settles
 class BackgroundPanel extends JPanel {
-    private Image backgroundImage;
+    private static final int RESCALE_DELAY_MS = 150;
+    private final String imagePath;
+    private final javax.swing.Timer rescale;
+    private BufferedImage backgroundImage;
 
     public BackgroundPanel(String imagePath) {
-        this.backgroundImage = new ImageIcon(imagePath).getImage();
+        this.imagePath = imagePath;
+        rescale = new javax.swing.Timer(RESCALE_DELAY_MS, e -> {
+            ImageCache.scaled(imagePath, getWidth(), getHeight(), getGraphicsConfiguration());
+            repaint();
+        });
+        rescale.setRepeats(false);
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        g.drawImage(backgroundImage, 0, 0, getWidth(), getHeight(), this);
+        int width = getWidth(), height = getHeight();
+        BufferedImage fitted = ImageCache.peek(imagePath, width, height);
+        if (fitted == null && backgroundImage == null) {
+            fitted = ImageCache.scaled(imagePath, width, height, getGraphicsConfiguration());
+        }
+        if (fitted != null) {
+            backgroundImage = fitted;
+            g.drawImage(fitted, 0, 0, null);
+        } else if (backgroundImage != null) {
+            g.drawImage(backgroundImage, 0, 0, width, height, null);
+            rescale.restart();
+        }
     }
 }
 
-// Modern, rounded buttons
+// Modern, rounded buttons. The gradient face is rendered once per size, hover state and screen
+// scale into an offscreen image shared by every button that size; a repaint just copies it, so
+// hovering across the dashboard allocates nothing. Painting happens on the EDT only
 class ModernButton extends JButton {
-    private Color startColor = new Color(255, 255, 255, 200);
-    private Color endColor = new Color(230, 230, 230, 180);
+    private static final Color START = new Color(255, 255, 255, 200), END = new Color(230, 230, 230, 180);
+    private static final Color HOVER_END = new Color(200, 200, 255), EDGE = new Color(255, 255, 255, 100);
+    private static final int ARC = 40, CACHED_FACES = 16;
+    private static final Map<String, BufferedImage> faces = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+            return size() > CACHED_FACES;
+        }
+    };
+
+    private final BufferedImage[] face = new BufferedImage[2]; // normal, rollover; for faceWidth x faceHeight
+    private int faceWidth, faceHeight;
 
     public ModernButton(String text) {
         super(text);
@@ -154,32 +5305,500 @@ class ModernButton extends JButton {
         setOpaque(false);
         setCursor(new Cursor(Cursor.HAND_CURSOR));
         setFont(new Font("Segoe UI", Font.BOLD, 16));
+        // Moved to a screen with another scale
+        addPropertyChangeListener("graphicsConfiguration", e -> face[0] = face[1] = null);
     }
 
     @Override
     protected void paintComponent(Graphics g) {
-        Graphics2D g2 = (Graphics2D) g.create();
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        int width = getWidth(), height = getHeight(), state = getModel().isRollover() ? 1 : 0;
+        if (width != faceWidth || height != faceHeight) {
+            face[0] = face[1] = null;
+            faceWidth = width;
+            faceHeight = height;
+        }
+        if (face[state] == null) face[state] = face(width, height, state == 1, scale());
+        if (face[state] != null) g.drawImage(face[state], 0, 0, width, height, null);
+        // The look and feel paints the icon and text straight onto g; super.paintComponent would
+        // make a scratch copy of g first. Paint is called with its own copy, so only the state the
+        // button UI changes is put back
+        Color color = g.getColor();
+        Font font = g.getFont();
+        ui.paint(g, this);
+        g.setColor(color);
+        g.setFont(font);
+    }
+
+    private double scale() {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        return gc != null ? gc.getDefaultTransform().getScaleX() : 1;
+    }
+
+    private static BufferedImage face(int width, int height, boolean rollover, double scale) {
+        if (width <= 0 || height <= 0) return null;
+        return faces.computeIfAbsent(width + "x" + height + (rollover ? " hover" : "") + " @" + scale, key -> {
+            BufferedImage image = new BufferedImage((int) Math.ceil(width * scale), (int) Math.ceil(height * scale),
+                    BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g2 = image.createGraphics();
+            g2.scale(scale, scale);
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setPaint(rollover ? new GradientPaint(0, 0, Color.WHITE, 0, height, HOVER_END)
+                    : new GradientPaint(0, 0, START, 0, height, END));
+            g2.fill(new RoundRectangle2D.Double(0, 0, width, height, ARC, ARC));
+            g2.setColor(EDGE);
+            g2.draw(new RoundRectangle2D.Double(0, 0, width - 1, height - 1, ARC, ARC));
+            g2.dispose();
+            return image;
+        });
+    }
+}
+
+// Table model that reads cells straight from an entity list instead of copying it into a Vector.
+// Edits report just the touched row, so the table and its sorter never rebuild everything.
+class EntityTableModel<T> extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private final List<T> rows;
+    private final String[] columns;
+    private final List<Function<T, ?>> cells;
+
+    // Cells are read column by column, so keep the last row around instead of fetching it per cell
+    private int cachedRow = -1;
+    private T cachedItem;
+
+    EntityTableModel(List<T> rows, String[] columns, List<Function<T, ?>> cells) {
+        this.rows = rows;
+        this.columns = columns;
+        this.cells = List.copyOf(cells);
+    }
+
+    @Override
+    public int getRowCount() { return rows.size(); }
+
+    @Override
+    public int getColumnCount() { return columns.length; }
+
+    @Override
+    public String getColumnName(int column) { return columns[column]; }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (row != cachedRow) {
+            cachedItem = rows.get(row);
+            cachedRow = row;
+        }
+        return cells.get(column).apply(cachedItem);
+    }
+
+    void rowInserted(int row) { fireTableRowsInserted(row, row); }
+    void rowUpdated(int row) { fireTableRowsUpdated(row, row); }
+    void rowDeleted(int row) { fireTableRowsDeleted(row, row); }
+
+    // Adapter for HotelService.RowListener
+    void rowsChanged(int type, int first, int last) {
+        fireTableChanged(new TableModelEvent(this, first, last, TableModelEvent.ALL_COLUMNS, type));
+    }
+
+    @Override
+    public void fireTableChanged(TableModelEvent e) {
+        cachedRow = -1;
+        super.fireTableChanged(e);
+    }
+}
+
+// SEARCH INDEX
+// Trigram index over a few text fields of each table row. Typing narrows the previous result set
+// instead of rescanning every cell, and the query is matched literally (ignoring case), not as a regex.
+// Row edits update the index and the current result in place (postings and matches shift with
+// inserted and deleted rows), so only a full reload of the table rebuilds it.
+class SearchIndex<T> implements TableModelListener {
+    private static final int DEBOUNCE_MS = 120;
+
+    private final List<T> rows;
+    private final List<Function<T, String>> fields;
+
+    private String[] texts = new String[64];
+    private int indexed;
+    private boolean dirty = true;
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    private String lastQuery;
+    private BitSet lastResult; // matches for lastQuery, kept in step with row edits
+
+    SearchIndex(List<T> rows, List<Function<T, String>> fields) {
+        this.rows = rows;
+        this.fields = List.copyOf(fields);
+    }
+
+    // Hooks a search box up to a table: keystrokes are debounced, then matching rows are filtered in.
+    // The filter reads the index's live result, which row edits update before the sorter sees them;
+    // a full reload re-runs the query straight away
+    static <M extends TableModel> void install(JTextField field, TableRowSorter<M> sorter, SearchIndex<?> index) {
+        RowFilter<M, Integer> filter = new RowFilter<M, Integer>() {
+            @Override
+            public boolean include(Entry<? extends M, ? extends Integer> entry) {
+                return index.matches(entry.getIdentifier());
+            }
+        };
+        Runnable apply = () -> {
+            Metrics.Span span = Metrics.start("search", null);
+            sorter.setRowFilter(index.search(field.getText()) == null ? null : filter);
+            span.end(0);
+        };
+        javax.swing.Timer debounce = new javax.swing.Timer(DEBOUNCE_MS, e -> apply.run());
+        debounce.setRepeats(false);
+        // One listener, registered after the table's, so it runs first: the index is current by the
+        // time the sorter filters the changed rows
+        sorter.getModel().addTableModelListener(e -> {
+            index.tableChanged(e);
+            if (index.dirty && !field.getText().isEmpty()) apply.run();
+        });
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { debounce.restart(); }
+            public void removeUpdate(DocumentEvent e) { debounce.restart(); }
+            public void changedUpdate(DocumentEvent e) { debounce.restart(); }
+        });
+    }
+
+    // Model rows containing the query, or null when the query is empty (show everything)
+    BitSet search(String query) {
+        String q = query.toLowerCase(Locale.ROOT);
+        if (q.isEmpty()) {
+            lastQuery = null;
+            lastResult = null;
+            return null;
+        }
+        if (dirty) rebuild();
 
-        if (getModel().isRollover()) {
-            g2.setPaint(new GradientPaint(0, 0, Color.WHITE, 0, getHeight(), new Color(200, 200, 255)));
+        BitSet candidates;
+        if (lastQuery != null && q.contains(lastQuery)) {
+            candidates = lastResult; // every row matching q also matched the shorter query
+        } else if (q.length() >= 3) {
+            candidates = rarestTrigram(q);
         } else {
-            g2.setPaint(new GradientPaint(0, 0, startColor, 0, getHeight(), endColor));
+            candidates = new BitSet(indexed);
+            candidates.set(0, indexed);
         }
 
-        g2.fill(new RoundRectangle2D.Double(0, 0, getWidth(), getHeight(), 40, 40));
+        BitSet result = new BitSet(indexed);
+        for (int row = candidates.nextSetBit(0); row >= 0; row = candidates.nextSetBit(row + 1)) {
+            if (texts[row].contains(q)) result.set(row);
+        }
+        lastQuery = q;
+        lastResult = result;
+        return result;
+    }
 
-        g2.setColor(new Color(255, 255, 255, 100));
-        g2.draw(new RoundRectangle2D.Double(0, 0, getWidth() - 1, getHeight() - 1, 40, 40));
+    boolean matches(int row) {
+        return lastResult == null || lastResult.get(row);
+    }
 
-        g2.dispose();
-        super.paintComponent(g);
+    // Inserted, updated and deleted rows are applied to the index; a full table change rebuilds it on
+    // the next search
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        int first = e.getFirstRow(), last = e.getLastRow();
+        if (dirty || first == TableModelEvent.HEADER_ROW || first < 0 || last == Integer.MAX_VALUE) {
+            dirty = true;
+            return;
+        }
+        int n = last - first + 1;
+        switch (e.getType()) {
+            case TableModelEvent.INSERT:
+                if (first > indexed) break;
+                inserted(first, n);
+                break;
+            case TableModelEvent.DELETE:
+                if (last >= indexed) break;
+                deleted(first, n);
+                break;
+            default:
+                for (int row = first; row <= Math.min(last, indexed - 1); row++) updated(row);
+        }
+        if (indexed != rows.size()) dirty = true; // an event that did not describe the list; start over
+    }
+
+    private void rebuild() {
+        postings.clear();
+        Arrays.fill(texts, 0, indexed, null);
+        indexed = 0;
+        for (int row = 0; row < rows.size(); row++) {
+            if (row == texts.length) texts = Arrays.copyOf(texts, row * 2);
+            texts[row] = text(rows.get(row));
+            indexed = row + 1;
+            addTrigrams(row);
+        }
+        lastQuery = null;
+        lastResult = null;
+        dirty = false;
+    }
+
+    private void inserted(int first, int n) {
+        if (indexed + n > texts.length) texts = Arrays.copyOf(texts, Math.max(indexed + n, texts.length * 2));
+        System.arraycopy(texts, first, texts, first + n, indexed - first);
+        if (first < indexed) {
+            for (Postings p : postings.values()) p.shift(first, n);
+        }
+        indexed += n;
+        shiftResult(first, n);
+        for (int row = first; row < first + n; row++) {
+            texts[row] = text(rows.get(row));
+            addTrigrams(row);
+            if (lastResult != null && texts[row].contains(lastQuery)) lastResult.set(row);
+        }
+    }
+
+    private void deleted(int first, int n) {
+        for (int row = first; row < first + n; row++) removeTrigrams(row);
+        System.arraycopy(texts, first + n, texts, first, indexed - first - n);
+        Arrays.fill(texts, indexed - n, indexed, null);
+        indexed -= n;
+        for (Postings p : postings.values()) p.shift(first + n, -n);
+        shiftResult(first, -n);
+    }
+
+    private void updated(int row) {
+        removeTrigrams(row);
+        texts[row] = text(rows.get(row));
+        addTrigrams(row);
+        if (lastResult != null) lastResult.set(row, texts[row].contains(lastQuery));
+    }
+
+    // Moves the matches at or after from by delta rows; a negative delta drops the deleted rows' bits
+    private void shiftResult(int from, int delta) {
+        if (lastResult == null) return;
+        int keepFrom = delta > 0 ? from : from - delta;
+        int end = Math.max(keepFrom, lastResult.length());
+        BitSet tail = lastResult.get(keepFrom, end);
+        lastResult.clear(from, Math.max(from, end));
+        for (int bit = tail.nextSetBit(0); bit >= 0; bit = tail.nextSetBit(bit + 1)) {
+            lastResult.set(keepFrom + delta + bit);
+        }
+    }
+
+    private String text(T item) {
+        StringBuilder text = new StringBuilder();
+        for (Function<T, String> field : fields) {
+            String value = field.apply(item);
+            if (value != null) text.append(value.toLowerCase(Locale.ROOT));
+            text.append('\n'); // keeps matches from spanning two fields
+        }
+        return text.toString();
+    }
+
+    private void addTrigrams(int row) {
+        String t = texts[row];
+        for (int i = 0; i + 3 <= t.length(); i++) {
+            if (isTrigram(t, i)) postings.computeIfAbsent(trigram(t, i), k -> new Postings()).add(row);
+        }
+    }
+
+    private void removeTrigrams(int row) {
+        String t = texts[row];
+        for (int i = 0; i + 3 <= t.length(); i++) {
+            if (!isTrigram(t, i)) continue;
+            long key = trigram(t, i);
+            Postings p = postings.get(key);
+            if (p != null && p.remove(row) && p.size == 0) postings.remove(key);
+        }
+    }
+
+    private BitSet rarestTrigram(String q) {
+        Postings rarest = null;
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            Postings p = postings.get(trigram(q, i));
+            if (p == null) return new BitSet();
+            if (rarest == null || p.size < rarest.size) rarest = p;
+        }
+        BitSet candidates = new BitSet(indexed);
+        for (int i = 0; i < rarest.size; i++) candidates.set(rarest.rows[i]);
+        return candidates;
+    }
+
+    private static boolean isTrigram(String s, int i) {
+        return s.charAt(i) != '\n' && s.charAt(i + 1) != '\n' && s.charAt(i + 2) != '\n';
+    }
+
+    private static long trigram(String s, int i) {
+        return (long) s.charAt(i) << 32 | (long) s.charAt(i + 1) << 16 | s.charAt(i + 2);
+    }
+
+    // Rows containing one trigram, in ascending order and without repeats
+    private static final class Postings {
+        int[] rows = new int[4];
+        int size;
+
+        void add(int row) {
+            if (size > 0 && rows[size - 1] == row) return;
+            int at = size > 0 && rows[size - 1] > row ? Arrays.binarySearch(rows, 0, size, row) : -size - 1;
+            if (at >= 0) return;
+            at = -at - 1;
+            if (size == rows.length) rows = Arrays.copyOf(rows, size * 2);
+            System.arraycopy(rows, at, rows, at + 1, size - at);
+            rows[at] = row;
+            size++;
+        }
+
+        boolean remove(int row) {
+            int at = Arrays.binarySearch(rows, 0, size, row);
+            if (at < 0) return false;
+            System.arraycopy(rows, at + 1, rows, at, size - at - 1);
+            size--;
+            return true;
+        }
+
+        // Adds delta to every row at or after from
+        void shift(int from, int delta) {
+            int at = Arrays.binarySearch(rows, 0, size, from);
+            for (int i = at >= 0 ? at : -at - 1; i < size; i++) rows[i] += delta;
+        }
+    }
+}
+
+// STARTUP
+// Loads what the dashboard and the forms need while the splash shows: the rooms and customers
+// lists, the reservation store with its indexes, and every background and icon, side by side on
+// a small pool. The progress bar moves as tasks finish. The lists are read on the pool and handed
+// over on the EDT. The reservation store, calendars and figures are built on the pool too, once
+// the rooms are in, and the EDT only adopts them (DataManager.preloadReservations), while the
+// images go on decoding beside it.
+final class Startup {
+    static final String[] BACKGROUNDS = {HomeFrame.BACKGROUND, "loasd.jpg"};
+    private static final int THREADS = 4;
+
+    private Startup() {}
+
+    // progress gets 0..100 on the EDT; the future completes once everything is loaded or has failed
+    static CompletableFuture<Void> preload(IntConsumer progress) {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS, task -> {
+            Thread thread = new Thread(task, "Startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<CompletableFuture<?>> tasks = new ArrayList<>();
+        CompletableFuture<Void> rooms = DataManager.preload("rooms.dat", pool);
+        tasks.add(rooms);
+        tasks.add(DataManager.preload("cust.dat", pool));
+        tasks.add(DataManager.preloadReservations(rooms, pool));
+        for (String background : BACKGROUNDS) {
+            tasks.add(CompletableFuture.runAsync(() -> ImageCache.image(background), pool));
+        }
+        for (String icon : HomeFrame.ICONS) {
+            tasks.add(CompletableFuture.runAsync(() -> ImageCache.icon(icon, HomeFrame.ICON_SIZE), pool));
+        }
+
+        AtomicInteger done = new AtomicInteger();
+        for (CompletableFuture<?> task : tasks) {
+            task.whenComplete((ok, e) -> {
+                int percent = done.incrementAndGet() * 100 / tasks.size();
+                SwingUtilities.invokeLater(() -> progress.accept(percent));
+            });
+        }
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ok, e) -> pool.shutdown());
     }
 }
 
 // MAIN ENTRY POINT
 public class HotelManagement {
+    // --serve [port] also opens the HTTP API (see HotelApi) on localhost; add --headless to skip the GUI.
+    // --bind <address> makes it listen there instead (0.0.0.0 for every interface); anyone who can
+    // reach that address can read and change all the data.
+    // --import <rooms|customers|reservations> <file.csv|file.jsonl> loads a file and exits
     public static void main(String[] args) {
+        List<String> options = Arrays.asList(args);
+        int metricsAt = options.indexOf("--metrics-log");
+        if (metricsAt >= 0) {
+            try {
+                Metrics.logEvery(Integer.parseInt(args[metricsAt + 1]));
+            } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                System.err.println("Usage: --metrics-log <seconds>");
+                System.exit(2);
+            }
+        }
+
+        // Past months leave res.dat before anything reads it (a no-op after the first start in a month)
+        // If a write fails the roll-over stops where it was and runs again next start
+        HotelService.call(() -> {
+            try {
+                DataManager.archivePastMonths();
+            } catch (UncheckedIOException e) {
+                System.err.println("Persistence Error: archiving past months failed: " + e.getCause().getMessage());
+            }
+            return null;
+        });
+
+        int importAt = options.indexOf("--import");
+        if (importAt >= 0) {
+            if (importAt + 2 >= args.length) {
+                System.err.println("Usage: --import <rooms|customers|reservations> <file.csv|file.jsonl>");
+                System.exit(2);
+            }
+            try {
+                System.out.println(BulkImporter.run(args[importAt + 1], Paths.get(args[importAt + 2])));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Import Error: " + e.getMessage());
+                System.exit(2);
+            }
+            System.exit(0);
+        }
+
+        int exportAt = options.indexOf("--export");
+        if (exportAt >= 0) {
+            if (exportAt + 2 >= args.length) {
+                System.err.println("Usage: --export <csv|json|jsonl> <file>");
+                System.exit(2);
+            }
+            try (Writer out = Files.newBufferedWriter(Paths.get(args[exportAt + 2]), StandardCharsets.UTF_8)) {
+                long count = ReservationReports.export(ReservationReports.checkFormat(args[exportAt + 1]), out);
+                System.out.println("Exported " + count + " reservations to " + args[exportAt + 2]);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Export Error: " + e.getMessage());
+                System.exit(2);
+            }
+            System.exit(0);
+        }
+
+        int reportAt = options.indexOf("--report");
+        if (reportAt >= 0) {
+            String name = reportAt + 1 < args.length ? args[reportAt + 1] : "";
+            try {
+                if (name.equals("revenue-by-room")) {
+                    ReservationReports.revenueByRoom().forEach((room, total) -> System.out.println(room + "\t" + total));
+                } else if (name.equals("revenue-by-type")) {
+                    ReservationReports.revenueByRoomType().forEach((type, total) -> System.out.println(type + "\t" + total));
+                } else if (name.equals("occupancy") && reportAt + 3 < args.length) {
+                    ReservationReports.occupancyByDay(LocalDate.parse(args[reportAt + 2]), LocalDate.parse(args[reportAt + 3]))
+                            .forEach((day, rooms) -> System.out.println(day + "\t" + rooms));
+                } else {
+                    System.err.println("Usage: --report <revenue-by-room|revenue-by-type|occupancy <from> <to>>");
+                    System.exit(2);
+                }
+            } catch (IllegalArgumentException | DateTimeException e) {
+                System.err.println("Report Error: " + e.getMessage());
+                System.exit(2);
+            }
+            System.exit(0);
+        }
+
+        int serve = options.indexOf("--serve");
+        if (serve >= 0) {
+            try {
+                int port = serve + 1 < args.length && !args[serve + 1].startsWith("--") ? Integer.parseInt(args[serve + 1]) : 8080;
+                int bindAt = options.indexOf("--bind");
+                if (bindAt >= 0 && (bindAt + 1 >= args.length || args[bindAt + 1].startsWith("--"))) {
+                    System.err.println("Usage: --bind <address>");
+                    System.exit(2);
+                }
+                InetAddress address = bindAt >= 0 ? InetAddress.getByName(args[bindAt + 1]) : InetAddress.getLoopbackAddress();
+                HotelApi.start(address, port);
+                System.out.println("HTTP API listening on " + address.getHostAddress() + ":" + port);
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("HTTP Error: " + e.getMessage());
+            }
+        }
+        if (options.contains("--headless")) return;
+
+        Metrics.Span span = Metrics.start("startup", null);
         SwingUtilities.invokeLater(() -> {
             // Initialize Splash Screen
             JFrame splash = new JFrame();
@@ -203,52 +5822,111 @@ public class HotelManagement {
             splash.setLocationRelativeTo(null);
             splash.setVisible(true);
 
-            // Fake loading thread
-            new Thread(() -> {
-                for(int i = 0; i <= 100; i++) {
-                    try { 
-                        Thread.sleep(20); 
-                        progressBar.setValue(i); 
-                    } catch(Exception ignored){}
-                }
+            // The dashboard opens as soon as the data and images are in
+            Startup.preload(progressBar::setValue).whenComplete((ok, e) -> SwingUtilities.invokeLater(() -> {
+                if (e != null) System.err.println("Startup Error: " + e.getMessage());
                 splash.dispose();
-                new HomeFrame();
-            }).start();
+                Navigator.show(HomeFrame.class, HomeFrame::new);
+                span.end(0);
+            }));
         });
     }
 }
 
+// NAVIGATION
+// One window per screen, built the first time it is opened and kept from then on: navigating hides
+// the current window and shows the next. Hidden screens stay subscribed to row changes and reload
+// notices, so their tables are current when they come back. Used on the EDT.
+final class Navigator {
+    private static final Map<Class<? extends JFrame>, JFrame> screens = new HashMap<>();
+    private static JFrame current;
+
+    private Navigator() {}
+
+    static <F extends JFrame> void show(Class<F> type, Supplier<F> create) {
+        Metrics.Span span = Metrics.start("navigate", type.getSimpleName());
+        JFrame next = screens.get(type);
+        if (next == null) {
+            next = create.get();
+            screens.put(type, next);
+        }
+        next.setVisible(true);
+        next.toFront();
+        if (current != null && current != next) current.setVisible(false);
+        current = next;
+        span.end(0);
+    }
+}
+
 // DASHBOARD FRAME
 class HomeFrame extends JFrame {
+    static final String BACKGROUND = "green-natural-background-vector-illustration-59110.jpg";
+    static final String[] ICONS = {"checked.png", "Customer Registration & Check IN.png", "Customer Details Bill.png", "logout.png"};
+    static final int ICON_SIZE = 100;
+
     public HomeFrame() {
         setTitle("Dashboard - Olied's Hotel");
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setExtendedState(JFrame.MAXIMIZED_BOTH);
 
-        BackgroundPanel bg = new BackgroundPanel("green-natural-background-vector-illustration-59110.jpg");
+        BackgroundPanel bg = new BackgroundPanel(BACKGROUND);
         bg.setLayout(new GridBagLayout());
         setContentPane(bg);
 
         JPanel menuGrid = new JPanel(new GridLayout(2, 2, 50, 50));
         menuGrid.setOpaque(false);
 
-        menuGrid.add(createMenuButton("Manage Rooms", "checked.png", e -> { new RoomForm(); dispose(); }));
-        menuGrid.add(createMenuButton("Customers", "Customer Registration & Check IN.png", e -> { new CustomerForm(); dispose(); }));
-        menuGrid.add(createMenuButton("Reservations", "Customer Details Bill.png", e -> { new ReservationForm(); dispose(); }));
-        menuGrid.add(createMenuButton("Exit System", "logout.png", e -> System.exit(0)));
+        menuGrid.add(createMenuButton("Manage Rooms", ICONS[0], e -> Navigator.show(RoomForm.class, RoomForm::new)));
+        menuGrid.add(createMenuButton("Customers", ICONS[1], e -> Navigator.show(CustomerForm.class, CustomerForm::new)));
+        menuGrid.add(createMenuButton("Reservations", ICONS[2], e -> Navigator.show(ReservationForm.class, ReservationForm::new)));
+        menuGrid.add(createMenuButton("Exit System", ICONS[3], e -> { DataManager.flush(); System.exit(0); }));
 
-        bg.add(menuGrid);
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.gridy = 0;
+        gbc.insets = new Insets(0, 0, 40, 0);
+        bg.add(createStatsTile(), gbc);
+        gbc.gridy = 1;
+        gbc.insets = new Insets(0, 0, 0, 0);
+        bg.add(menuGrid, gbc);
         setSize(1200, 900);
         setLocationRelativeTo(null);
         setVisible(true);
     }
 
+    // This month's figures; the numbers come from the analytics cache, so refreshing is cheap
+    private JComponent createStatsTile() {
+        JLabel stats = new JLabel("", SwingConstants.CENTER);
+        stats.setFont(new Font("Segoe UI", Font.PLAIN, 18));
+        stats.setOpaque(true);
+        stats.setBackground(new Color(255, 255, 255, 200));
+        stats.setBorder(new EmptyBorder(15, 30, 15, 30));
+
+        Runnable refresh = () -> {
+            LocalDate first = LocalDate.now().withDayOfMonth(1);
+            Analytics.Kpi kpi = DataManager.analytics().kpi((int) first.toEpochDay(), (int) first.plusMonths(1).toEpochDay());
+            StringBuilder byType = new StringBuilder();
+            kpi.revenueByType().forEach((type, total) -> byType.append(type).append(" $").append(total).append("&nbsp;&nbsp; "));
+            stats.setText(String.format(Locale.ROOT, "<html><center><b>%s</b> &nbsp; Occupancy %.1f%% &nbsp; ADR $%.2f"
+                            + " &nbsp; RevPAR $%.2f &nbsp; Revenue $%d<br>%s</center></html>",
+                    first.getMonth() + " " + first.getYear(), kpi.occupancy() * 100, kpi.adr(), kpi.revPar(),
+                    kpi.revenue(), byType));
+        };
+        refresh.run();
+        DataManager.addChangeListener("res.dat", refresh);
+        DataManager.addChangeListener("rooms.dat", refresh);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                DataManager.removeChangeListener("res.dat", refresh);
+                DataManager.removeChangeListener("rooms.dat", refresh);
+            }
+        });
+        return stats;
+    }
+
     private JButton createMenuButton(String text, String iconPath, ActionListener action) {
         ModernButton btn = new ModernButton(text);
-        try {
-            Image iconImg = new ImageIcon(iconPath).getImage().getScaledInstance(100, 100, Image.SCALE_SMOOTH);
-            btn.setIcon(new ImageIcon(iconImg));
-        } catch(Exception e) { /* Icon fail silent */ }
+        btn.setIcon(ImageCache.icon(iconPath, HomeFrame.ICON_SIZE));
 
         btn.setVerticalTextPosition(SwingConstants.BOTTOM);
         btn.setHorizontalTextPosition(SwingConstants.CENTER);
@@ -264,11 +5942,15 @@ class RoomForm extends JFrame {
     private JComboBox<RoomType> typeCombo;
     private JComboBox<BedType> bedCombo;
     private JTable roomTable;
-    private DefaultTableModel tableModel;
-    private ArrayList<Room> roomList;
+    private EntityTableModel<Room> tableModel;
+    private List<Room> roomList;
+    private final HotelService service = HotelService.get();
+    private HotelService.RowListener rowListener;
+    // rows re-read from disk (another process wrote the file) carry no row-level notice
+    private final Runnable reloadTable = () -> tableModel.fireTableDataChanged();
 
     public RoomForm() {
-        roomList = DataManager.getRooms();
+        roomList = service.rooms();
         setupFrame();
     }
 
@@ -285,7 +5967,7 @@ class RoomForm extends JFrame {
         topPanel.setOpaque(false);
         ModernButton backBtn = new ModernButton("Dashboard");
         backBtn.setPreferredSize(new Dimension(150, 50));
-        backBtn.addActionListener(e -> { new HomeFrame(); dispose(); });
+        backBtn.addActionListener(e -> Navigator.show(HomeFrame.class, HomeFrame::new));
         topPanel.add(backBtn);
 
         // Input Form Panel
@@ -306,14 +5988,14 @@ class RoomForm extends JFrame {
         ModernButton addBtn = new ModernButton("Add Room");
         addBtn.addActionListener(e -> {
             try {
-                roomList.add(new Room(
+                WriteFailures.report(this, service.addRoom(new Room(
                         idField.getText(), 
                         (RoomType)typeCombo.getSelectedItem(), 
                         (BedType)bedCombo.getSelectedItem(), 
                         Integer.parseInt(priceField.getText())
-                ));
-                DataManager.save(roomList, "rooms.dat"); 
-                refreshTable();
+                )));
+            } catch (DuplicateIdException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage());
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(this, "Invalid Price format");
             }
@@ -327,9 +6009,7 @@ class RoomForm extends JFrame {
                 return;
             }
             int modelRow = roomTable.convertRowIndexToModel(viewRow);
-            roomList.remove(modelRow);
-            DataManager.save(roomList, "rooms.dat"); 
-            refreshTable();
+            WriteFailures.report(this, service.deleteRoom(modelRow));
         });
 
         // NEW: Load and Update buttons
@@ -364,9 +6044,9 @@ class RoomForm extends JFrame {
                         (BedType) bedCombo.getSelectedItem(),
                         Integer.parseInt(priceField.getText())
                 );
-                roomList.set(modelRow, updated);
-                DataManager.save(roomList, "rooms.dat");
-                refreshTable();
+                WriteFailures.report(this, service.updateRoom(modelRow, updated));
+            } catch (DuplicateIdException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage());
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid price format");
             }
@@ -378,15 +6058,18 @@ class RoomForm extends JFrame {
         inputPanel.add(updateBtn);
 
         // Table Setup
-        tableModel = new DefaultTableModel(new String[]{"ID", "Type", "Bed", "Price"}, 0);
+        tableModel = new EntityTableModel<>(roomList, new String[]{"ID", "Type", "Bed", "Price"},
+                List.of(Room::getRoomId, Room::getType, Room::getBed, Room::getPrice));
         roomTable = new JTable(tableModel);
         roomTable.setRowHeight(30);
+        rowListener = tableModel::rowsChanged;
+        service.addRowListener(HotelService.ROOMS, rowListener);
+        DataManager.addReloadListener(HotelService.ROOMS, reloadTable);
 
         bg.add(topPanel, BorderLayout.NORTH);
         bg.add(inputPanel, BorderLayout.WEST);
         bg.add(new JScrollPane(roomTable), BorderLayout.CENTER);
 
-        refreshTable();
         setVisible(true);
     }
 
@@ -396,11 +6079,11 @@ class RoomForm extends JFrame {
         p.add(lbl);
     }
 
-    private void refreshTable() {
-        tableModel.setRowCount(0);
-        for(Room r : roomList) {
-            tableModel.addRow(new Object[]{r.getRoomId(), r.getType(), r.getBed(), r.getPrice()});
-        }
+    @Override
+    public void dispose() {
+        service.removeRowListener(HotelService.ROOMS, rowListener);
+        DataManager.removeReloadListener(HotelService.ROOMS, reloadTable);
+        super.dispose();
     }
 }
 
@@ -408,11 +6091,15 @@ class RoomForm extends JFrame {
 class CustomerForm extends JFrame {
     private JTextField idField, nameField, phoneField, emailField, searchField;
     private JTable customerTable;
-    private DefaultTableModel tableModel;
-    private ArrayList<Customer> customerList;
+    private EntityTableModel<Customer> tableModel;
+    private List<Customer> customerList;
+    private final HotelService service = HotelService.get();
+    private HotelService.RowListener rowListener;
+    // rows re-read from disk (another process wrote the file) carry no row-level notice
+    private final Runnable reloadTable = () -> tableModel.fireTableDataChanged();
 
     public CustomerForm() {
-        customerList = DataManager.getCust();
+        customerList = service.customers();
         setupUI();
     }
 
@@ -429,7 +6116,7 @@ class CustomerForm extends JFrame {
 
         ModernButton backBtn = new ModernButton("BACK");
         backBtn.setPreferredSize(new Dimension(100, 50));
-        backBtn.addActionListener(e -> { new HomeFrame(); dispose(); });
+        backBtn.addActionListener(e -> Navigator.show(HomeFrame.class, HomeFrame::new));
 
         searchField = new JTextField(15);
         JPanel searchBox = new JPanel(); 
@@ -459,14 +6146,16 @@ class CustomerForm extends JFrame {
 
         ModernButton registerBtn = new ModernButton("Register Guest");
         registerBtn.addActionListener(e -> {
-            customerList.add(new Customer(
-                    idField.getText(), 
-                    nameField.getText(), 
-                    phoneField.getText(), 
-                    emailField.getText()
-            ));
-            DataManager.save(customerList, "cust.dat"); 
-            refreshTable();
+            try {
+                WriteFailures.report(this, service.addCustomer(new Customer(
+                        idField.getText(), 
+                        nameField.getText(), 
+                        phoneField.getText(), 
+                        emailField.getText()
+                )));
+            } catch (DuplicateIdException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage());
+            }
         });
         inputPanel.add(registerBtn);
 
@@ -502,9 +6191,11 @@ class CustomerForm extends JFrame {
                     phoneField.getText(),
                     emailField.getText()
             );
-            customerList.set(modelRow, updated);
-            DataManager.save(customerList, "cust.dat");
-            refreshTable();
+            try {
+                WriteFailures.report(this, service.updateCustomer(modelRow, updated));
+            } catch (DuplicateIdException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage());
+            }
         });
 
         ModernButton deleteBtn = new ModernButton("Delete Guest");
@@ -515,9 +6206,7 @@ class CustomerForm extends JFrame {
                 return;
             }
             int modelRow = customerTable.convertRowIndexToModel(viewRow);
-            customerList.remove(modelRow);
-            DataManager.save(customerList, "cust.dat");
-            refreshTable();
+            WriteFailures.report(this, service.deleteCustomer(modelRow));
         });
 
         inputPanel.add(loadBtn);
@@ -525,25 +6214,25 @@ class CustomerForm extends JFrame {
         inputPanel.add(deleteBtn);
 
         // Table with Filtering
-        tableModel = new DefaultTableModel(new String[]{"ID", "Name", "Phone", "Email"}, 0);
+        tableModel = new EntityTableModel<>(customerList, new String[]{"ID", "Name", "Phone", "Email"},
+                List.of(Customer::getCustomerId, Customer::getName, Customer::getPhone, Customer::getEmail));
         customerTable = new JTable(tableModel);
         customerTable.setRowHeight(30);
+        rowListener = tableModel::rowsChanged;
+        service.addRowListener(HotelService.CUSTOMERS, rowListener);
+        DataManager.addReloadListener(HotelService.CUSTOMERS, reloadTable);
 
-        TableRowSorter<DefaultTableModel> sorter = new TableRowSorter<>(tableModel);
+        TableRowSorter<EntityTableModel<Customer>> sorter = new TableRowSorter<>(tableModel);
         customerTable.setRowSorter(sorter);
 
-        searchField.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyReleased(KeyEvent e) {
-                sorter.setRowFilter(RowFilter.regexFilter("(?i)" + searchField.getText()));
-            }
-        });
+        SearchIndex<Customer> searchIndex = new SearchIndex<>(customerList,
+                List.of(Customer::getName, Customer::getPhone, Customer::getEmail));
+        SearchIndex.install(searchField, sorter, searchIndex);
 
         bg.add(navPanel, BorderLayout.NORTH);
         bg.add(inputPanel, BorderLayout.WEST);
         bg.add(new JScrollPane(customerTable), BorderLayout.CENTER);
 
-        refreshTable();
         setVisible(true);
     }
 
@@ -553,11 +6242,11 @@ class CustomerForm extends JFrame {
         return l;
     }
 
-    private void refreshTable() {
-        tableModel.setRowCount(0);
-        for(Customer c : customerList) {
-            tableModel.addRow(new Object[]{c.getCustomerId(), c.getName(), c.getPhone(), c.getEmail()});
-        }
+    @Override
+    public void dispose() {
+        service.removeRowListener(HotelService.CUSTOMERS, rowListener);
+        DataManager.removeReloadListener(HotelService.CUSTOMERS, reloadTable);
+        super.dispose();
     }
 }
 
@@ -565,14 +6254,29 @@ class CustomerForm extends JFrame {
 class ReservationForm extends JFrame {
     private JComboBox<Room> roomCombo;
     private JComboBox<Customer> guestCombo;
+    private ListCellRenderer<? super Room> roomRenderer;
+    private ModernButton freeBtn;
+    private boolean showingFree; // the room list holds only the rooms free for the chosen dates
     private JTextField resIdField, totalPriceField, searchField;
     private JSpinner checkInSpinner, checkOutSpinner;
     private JTable resTable;
-    private DefaultTableModel tableModel;
-    private ArrayList<Reservation> reservationList;
+    private EntityTableModel<Reservation> tableModel;
+    private List<Reservation> reservationList;
+    private final HotelService service = HotelService.get();
+    private HotelService.RowListener rowListener;
+    // rows re-read from disk (another process wrote the file) carry no row-level notice
+    private final Runnable reloadTable = () -> tableModel.fireTableDataChanged();
+
+    // keep the combos in step when rooms or guests change elsewhere; the Guest column joins in the
+    // customer's name, so it is redrawn too
+    private final Runnable reloadRooms = this::showAllRooms;
+    private final Runnable reloadGuests = () -> {
+        guestCombo.setModel(new DefaultComboBoxModel<>(service.customers().toArray(new Customer[0])));
+        tableModel.fireTableDataChanged();
+    };
 
     public ReservationForm() {
-        reservationList = DataManager.getRes();
+        reservationList = service.reservations();
         setupUI();
     }
 
@@ -588,7 +6292,7 @@ class ReservationForm extends JFrame {
         navPanel.setOpaque(false);
         ModernButton backBtn = new ModernButton("BACK");
         backBtn.setPreferredSize(new Dimension(100, 50));
-        backBtn.addActionListener(e -> { new HomeFrame(); dispose(); });
+        backBtn.addActionListener(e -> Navigator.show(HomeFrame.class, HomeFrame::new));
 
         searchField = new JTextField(15);
         JPanel searchPanel = new JPanel(); 
@@ -607,15 +6311,24 @@ class ReservationForm extends JFrame {
         inputGrid.setBorder(new EmptyBorder(10, 40, 10, 40));
 
         resIdField = new JTextField();
-        roomCombo = new JComboBox<>(DataManager.getRooms().toArray(new Room[0]));
-        guestCombo = new JComboBox<>(DataManager.getCust().toArray(new Customer[0]));
+        roomCombo = new JComboBox<>(service.rooms().toArray(new Room[0]));
+        roomRenderer = roomCombo.getRenderer();
+        guestCombo = new JComboBox<>(service.customers().toArray(new Customer[0]));
+        DataManager.addChangeListener("rooms.dat", reloadRooms);
+        DataManager.addChangeListener("cust.dat", reloadGuests);
 
         checkInSpinner = new JSpinner(new SpinnerDateModel());
         checkOutSpinner = new JSpinner(new SpinnerDateModel());
         checkInSpinner.setEditor(new JSpinner.DateEditor(checkInSpinner, "yyyy-MM-dd"));
         checkOutSpinner.setEditor(new JSpinner.DateEditor(checkOutSpinner, "yyyy-MM-dd"));
 
+        // The total follows the room and the dates at the configured rates
         totalPriceField = new JTextField();
+        totalPriceField.setEditable(false);
+        roomCombo.addActionListener(e -> updateTotal());
+        checkInSpinner.addChangeListener(e -> datesChanged());
+        checkOutSpinner.addChangeListener(e -> datesChanged());
+        updateTotal();
 
         inputGrid.add(createLabel("Reservation ID:")); inputGrid.add(resIdField);
         inputGrid.add(createLabel("Select Room:")); inputGrid.add(roomCombo);
@@ -627,22 +6340,52 @@ class ReservationForm extends JFrame {
         ModernButton confirmBtn = new ModernButton("Confirm Booking");
         confirmBtn.addActionListener(e -> {
             try {
-                reservationList.add(new Reservation(
+                Reservation booking = new Reservation(
                     resIdField.getText(), 
                     roomCombo.getSelectedItem().toString(), 
-                    guestCombo.getSelectedItem().toString(), 
+                    ((Customer) guestCombo.getSelectedItem()).getCustomerId(), 
                     (Date)checkInSpinner.getValue(), 
                     (Date)checkOutSpinner.getValue(), 
-                    Integer.parseInt(totalPriceField.getText())
-                ));
-                DataManager.save(reservationList, "res.dat"); 
-                refreshTable();
+                    total()
+                );
+                WriteFailures.report(this, service.book(booking));
+            } catch (InvalidRequestException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage());
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(this, "Please check numeric fields.");
             }
         });
         inputGrid.add(confirmBtn);
 
+        freeBtn = new ModernButton("Show Free Rooms");
+        freeBtn.addActionListener(e -> {
+            if (showingFree) {
+                showAllRooms();
+                return;
+            }
+            try {
+                Map<Room, Integer> free = service.quoteFreeRooms(null, null,
+                        (Date) checkInSpinner.getValue(), (Date) checkOutSpinner.getValue());
+                roomCombo.setModel(new DefaultComboBoxModel<>(free.keySet().toArray(new Room[0])));
+                roomCombo.setRenderer(new DefaultListCellRenderer() {
+                    @Override
+                    public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                                  boolean selected, boolean focus) {
+                        Integer total = free.get(value);
+                        return super.getListCellRendererComponent(list,
+                                total == null ? value : value + "  ($" + total + ")", index, selected, focus);
+                    }
+                });
+                showingFree = true;
+                freeBtn.setText("Show All Rooms");
+                updateTotal();
+                if (free.isEmpty()) JOptionPane.showMessageDialog(this, "No rooms are free for those dates.");
+            } catch (InvalidRequestException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage());
+            }
+        });
+        inputGrid.add(freeBtn);
+
         // NEW: Load, Update, Delete buttons
         ModernButton loadBtn = new ModernButton("Load Selected");
         loadBtn.addActionListener(e -> {
@@ -655,11 +6398,13 @@ class ReservationForm extends JFrame {
             Reservation r = reservationList.get(modelRow);
 
             resIdField.setText(r.getResId());
-            selectComboItem(roomCombo, r.getRoomId());
-            selectComboItem(guestCombo, r.getCustId());
+            Room room = service.roomOf(r);
+            Customer guest = service.guestOf(r);
+            if (room != null) roomCombo.getModel().setSelectedItem(room);
+            if (guest != null) guestCombo.getModel().setSelectedItem(guest);
             checkInSpinner.setValue(r.getCheckIn());
             checkOutSpinner.setValue(r.getCheckOut());
-            totalPriceField.setText(String.valueOf(r.getTotal()));
+            totalPriceField.setText(String.valueOf(r.getTotal())); // as booked, until something changes
         });
 
         ModernButton updateBtn = new ModernButton("Update Booking");
@@ -675,14 +6420,14 @@ class ReservationForm extends JFrame {
                 Reservation updated = new Reservation(
                         resIdField.getText(),
                         roomCombo.getSelectedItem().toString(),
-                        guestCombo.getSelectedItem().toString(),
+                        ((Customer) guestCombo.getSelectedItem()).getCustomerId(),
                         (Date) checkInSpinner.getValue(),
                         (Date) checkOutSpinner.getValue(),
-                        Integer.parseInt(totalPriceField.getText())
+                        total()
                 );
-                reservationList.set(modelRow, updated);
-                DataManager.save(reservationList, "res.dat");
-                refreshTable();
+                WriteFailures.report(this, service.updateBooking(modelRow, updated));
+            } catch (InvalidRequestException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage());
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Please check numeric fields.");
             }
@@ -696,9 +6441,7 @@ class ReservationForm extends JFrame {
                 return;
             }
             int modelRow = resTable.convertRowIndexToModel(viewRow);
-            reservationList.remove(modelRow);
-            DataManager.save(reservationList, "res.dat");
-            refreshTable();
+            WriteFailures.report(this, service.cancelBooking(modelRow));
         });
 
         inputGrid.add(loadBtn);
@@ -706,24 +6449,24 @@ class ReservationForm extends JFrame {
         inputGrid.add(deleteBtn);
 
         // Table UI
-        tableModel = new DefaultTableModel(new String[]{"RID", "Room", "Guest", "In", "Out", "Total"}, 0);
+        tableModel = new EntityTableModel<>(reservationList, new String[]{"RID", "Room", "Guest", "In", "Out", "Total"},
+                List.of(Reservation::getResId, Reservation::getRoomId, this::guestText,
+                        Reservation::getCheckIn, Reservation::getCheckOut, Reservation::getTotal));
         resTable = new JTable(tableModel);
         resTable.setRowHeight(30);
+        rowListener = tableModel::rowsChanged;
+        service.addRowListener(HotelService.RESERVATIONS, rowListener);
+        DataManager.addReloadListener(HotelService.RESERVATIONS, reloadTable);
 
-        TableRowSorter<DefaultTableModel> sorter = new TableRowSorter<>(tableModel);
+        TableRowSorter<EntityTableModel<Reservation>> sorter = new TableRowSorter<>(tableModel);
         resTable.setRowSorter(sorter);
-        searchField.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyReleased(KeyEvent e) {
-                sorter.setRowFilter(RowFilter.regexFilter("(?i)" + searchField.getText()));
-            }
-        });
+        SearchIndex<Reservation> searchIndex = new SearchIndex<>(reservationList, List.of(Reservation::getResId));
+        SearchIndex.install(searchField, sorter, searchIndex);
 
         bg.add(navPanel, BorderLayout.NORTH);
         bg.add(inputGrid, BorderLayout.WEST);
         bg.add(new JScrollPane(resTable), BorderLayout.CENTER);
 
-        refreshTable();
         setVisible(true);
     }
 
@@ -733,25 +6476,52 @@ class ReservationForm extends JFrame {
         return l;
     }
 
-    private void refreshTable() {
-        tableModel.setRowCount(0);
-        for(Reservation r : reservationList) {
-            tableModel.addRow(new Object[]{
-                r.getResId(), r.getRoomId(), r.getCustId(), 
-                r.getCheckIn(), r.getCheckOut(), r.getTotal()
-            });
-        }
+    // Empty while the stay is invalid; the service then reports what is wrong with it
+    private int total() {
+        String text = totalPriceField.getText();
+        return text.isEmpty() ? 0 : Integer.parseInt(text);
     }
 
-    // helper to select combo item by toString ID
-    private void selectComboItem(JComboBox<?> combo, String idText) {
-        for (int i = 0; i < combo.getItemCount(); i++) {
-            Object item = combo.getItemAt(i);
-            if (item != null && item.toString().equals(idText)) {
-                combo.setSelectedIndex(i);
-                break;
-            }
+    // The free rooms and their prices were for the old dates
+    private void datesChanged() {
+        if (showingFree) showAllRooms();
+        updateTotal();
+    }
+
+    // Back to every room with the plain renderer, keeping the selection when the room is still there
+    private void showAllRooms() {
+        Object selected = roomCombo.getSelectedItem();
+        showingFree = false;
+        freeBtn.setText("Show Free Rooms");
+        roomCombo.setRenderer(roomRenderer);
+        roomCombo.setModel(new DefaultComboBoxModel<>(service.rooms().toArray(new Room[0])));
+        if (selected instanceof Room) {
+            Room room = service.findRoom(((Room) selected).getRoomId());
+            if (room != null) roomCombo.setSelectedItem(room);
         }
+        updateTotal();
+    }
+
+    private void updateTotal() {
+        Room room = (Room) roomCombo.getSelectedItem();
+        Date in = (Date) checkInSpinner.getValue(), out = (Date) checkOutSpinner.getValue();
+        boolean valid = room != null && EntityCodec.toEpochDay(out) > EntityCodec.toEpochDay(in);
+        totalPriceField.setText(valid ? String.valueOf(Pricing.get().quote(room, in, out)) : "");
+    }
+
+    @Override
+    public void dispose() {
+        DataManager.removeChangeListener("rooms.dat", reloadRooms);
+        DataManager.removeChangeListener("cust.dat", reloadGuests);
+        service.removeRowListener(HotelService.RESERVATIONS, rowListener);
+        DataManager.removeReloadListener(HotelService.RESERVATIONS, reloadTable);
+        super.dispose();
+    }
+
+    // reservations store only the customer ID; the name is joined in for display, so renames show up
+    private String guestText(Reservation r) {
+        Customer guest = service.guestOf(r);
+        return guest != null ? guest.toString() : r.getCustId();
     }
 }
 